@@ -25,6 +25,13 @@ import java.text.DecimalFormat;
 
 /**
  * Holds the output of a pairwise sequences alignment.
+ * <p>
+ * An alignment returned by
+ * {@link SmithWatermanGotoh#align(Sequence, Sequence, Matrix, float, float)}
+ * is lazy: it only knows its score. The aligned sequences, the markup line,
+ * the start locations and the statistics are built the first time any of
+ * them is asked for; one of them set before then keeps the value it is set
+ * to.
  * 
  * @author Ahmed Moustafa (ahmed@users.sf.net)
  */
@@ -116,6 +123,51 @@ public class Alignment {
 	 */
 	private int gaps;
 
+	/**
+	 * Sequence #1, while the alignment is not built yet
+	 */
+	private Sequence pending1;
+
+	/**
+	 * Sequence #2, while the alignment is not built yet
+	 */
+	private Sequence pending2;
+
+	/**
+	 * Scoring matrix the alignment is built with
+	 */
+	private Matrix pendingMatrix;
+
+	/**
+	 * Gap open cost the alignment is built with
+	 */
+	private float pendingOpen;
+
+	/**
+	 * Gap extend cost the alignment is built with
+	 */
+	private float pendingExtend;
+
+	/**
+	 * Score of the dynamic programming the alignment is built from
+	 */
+	private float pendingScore;
+
+	/**
+	 * Fields set while the alignment was not built yet, which building it
+	 * leaves as they are
+	 */
+	private int assigned;
+
+	private static final int SEQUENCE1 = 1;
+	private static final int SEQUENCE2 = 2;
+	private static final int START1 = 4;
+	private static final int START2 = 8;
+	private static final int MARKUP_LINE = 16;
+	private static final int IDENTITY = 32;
+	private static final int SIMILARITY = 64;
+	private static final int GAPS = 128;
+
 	/**
 	 * Constructor for Alignment
 	 */
@@ -124,6 +176,78 @@ public class Alignment {
 		super();
 	}
 
+	/**
+	 * Constructor for a lazy alignment of two sequences, built on first use
+	 * by {@link SmithWatermanGotoh#align(Sequence, Sequence, Matrix, float, float, AlignmentWorkspace)}
+	 * with the given matrix and gap penalties, even if the matrix or the
+	 * penalties of this alignment are set to others before then
+	 * 
+	 * @param s1
+	 *            sequence #1
+	 * @param s2
+	 *            sequence #2
+	 * @param matrix
+	 *            scoring matrix
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @param score
+	 *            the alignment score
+	 */
+	Alignment(Sequence s1, Sequence s2, Matrix matrix, float o, float e,
+			float score) {
+		super();
+		this.pending1 = s1;
+		this.pending2 = s2;
+		this.pendingMatrix = matrix;
+		this.pendingOpen = o;
+		this.pendingExtend = e;
+		this.matrix = matrix;
+		this.open = o;
+		this.extend = e;
+		this.score = score;
+		this.pendingScore = score;
+	}
+
+	/**
+	 * Builds the aligned sequences, markup line, start locations and
+	 * statistics of a lazy alignment.
+	 */
+	private synchronized void materialize() {
+		if (pending1 != null) {
+			Alignment alignment = SmithWatermanGotoh.align(pending1,
+					pending2, pendingMatrix, pendingOpen, pendingExtend,
+					new AlignmentWorkspace());
+			if ((assigned & SEQUENCE1) == 0) {
+				sequence1 = alignment.sequence1;
+			}
+			if ((assigned & START1) == 0) {
+				start1 = alignment.start1;
+			}
+			if ((assigned & SEQUENCE2) == 0) {
+				sequence2 = alignment.sequence2;
+			}
+			if ((assigned & START2) == 0) {
+				start2 = alignment.start2;
+			}
+			if ((assigned & MARKUP_LINE) == 0) {
+				markupLine = alignment.markupLine;
+			}
+			if ((assigned & IDENTITY) == 0) {
+				identity = alignment.identity;
+			}
+			if ((assigned & SIMILARITY) == 0) {
+				similarity = alignment.similarity;
+			}
+			if ((assigned & GAPS) == 0) {
+				gaps = alignment.gaps;
+			}
+			pending1 = pending2 = null;
+			pendingMatrix = null;
+		}
+	}
+
 	/**
 	 * @return Returns the extend.
 	 */
@@ -220,6 +344,7 @@ public class Alignment {
 	 * @return Returns the sequence1.
 	 */
 	public char[] getSequence1() {
+		materialize();
 		return sequence1;
 	}
 
@@ -227,14 +352,16 @@ public class Alignment {
 	 * @param sequence1
 	 *            The sequence1 to set.
 	 */
-	public void setSequence1(char[] sequence1) {
+	public synchronized void setSequence1(char[] sequence1) {
 		this.sequence1 = sequence1;
+		assigned |= SEQUENCE1;
 	}
 
 	/**
 	 * @return Returns the sequence2.
 	 */
 	public char[] getSequence2() {
+		materialize();
 		return sequence2;
 	}
 
@@ -242,14 +369,16 @@ public class Alignment {
 	 * @param sequence2
 	 *            The sequence2 to set.
 	 */
-	public void setSequence2(char[] sequence2) {
+	public synchronized void setSequence2(char[] sequence2) {
 		this.sequence2 = sequence2;
+		assigned |= SEQUENCE2;
 	}
 
 	/**
 	 * @return Returns the start1.
 	 */
 	public int getStart1() {
+		materialize();
 		return start1;
 	}
 
@@ -257,14 +386,16 @@ public class Alignment {
 	 * @param start1
 	 *            The start1 to set.
 	 */
-	public void setStart1(int start1) {
+	public synchronized void setStart1(int start1) {
 		this.start1 = start1;
+		assigned |= START1;
 	}
 
 	/**
 	 * @return Returns the start2.
 	 */
 	public int getStart2() {
+		materialize();
 		return start2;
 	}
 
@@ -272,14 +403,16 @@ public class Alignment {
 	 * @param start2
 	 *            The start2 to set.
 	 */
-	public void setStart2(int start2) {
+	public synchronized void setStart2(int start2) {
 		this.start2 = start2;
+		assigned |= START2;
 	}
 
 	/**
 	 * @return Returns the gaps.
 	 */
 	public int getGaps() {
+		materialize();
 		return gaps;
 	}
 
@@ -287,14 +420,16 @@ public class Alignment {
 	 * @param gaps
 	 *            The gaps to set.
 	 */
-	public void setGaps(int gaps) {
+	public synchronized void setGaps(int gaps) {
 		this.gaps = gaps;
+		assigned |= GAPS;
 	}
 
 	/**
 	 * @return Returns the identity.
 	 */
 	public int getIdentity() {
+		materialize();
 		return identity;
 	}
 
@@ -302,14 +437,16 @@ public class Alignment {
 	 * @param identity
 	 *            The identity to set.
 	 */
-	public void setIdentity(int identity) {
+	public synchronized void setIdentity(int identity) {
 		this.identity = identity;
+		assigned |= IDENTITY;
 	}
 
 	/**
 	 * @return Returns the markupLine.
 	 */
 	public char[] getMarkupLine() {
+		materialize();
 		return markupLine;
 	}
 
@@ -317,14 +454,16 @@ public class Alignment {
 	 * @param markupLine
 	 *            The markupLine to set.
 	 */
-	public void setMarkupLine(char[] markupLine) {
+	public synchronized void setMarkupLine(char[] markupLine) {
 		this.markupLine = markupLine;
+		assigned |= MARKUP_LINE;
 	}
 
 	/**
 	 * @return Returns the similarity.
 	 */
 	public int getSimilarity() {
+		materialize();
 		return similarity;
 	}
 
@@ -332,8 +471,9 @@ public class Alignment {
 	 * @param similarity
 	 *            The similarity to set.
 	 */
-	public void setSimilarity(int similarity) {
+	public synchronized void setSimilarity(int similarity) {
 		this.similarity = similarity;
+		assigned |= SIMILARITY;
 	}
 
 	/**
@@ -384,10 +524,25 @@ public class Alignment {
 	 * Calculate the score of the alignment, not using the score field (the
 	 * function only uses sequence1, sequence2, matrix and gap penalties). (By:
 	 * Bram Minnaert)
+	 * <p>
+	 * A lazy alignment of two non-empty sequences is not built for this while
+	 * its sequences, matrix and gap penalties are the ones it was aligned
+	 * with: the dynamic programming adds the same scores and penalties in the
+	 * same order along the best path, so its score is the calculated score.
 	 * 
 	 * @return the calculated score
 	 */
 	public float calculateScore() {
+		synchronized (this) {
+			if (pending1 != null && pending1.length() > 0
+					&& pending2.length() > 0
+					&& (assigned & (SEQUENCE1 | SEQUENCE2)) == 0
+					&& matrix == pendingMatrix && open == pendingOpen
+					&& extend == pendingExtend) {
+				return pendingScore;
+			}
+		}
+		materialize();
 		float calcScore = 0; // the calculated score
 		boolean previous1wasGap = false; // in the previous step there was a gap
 										 // in the first sequence
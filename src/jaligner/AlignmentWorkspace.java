@@ -0,0 +1,403 @@
+package jaligner;
+
+/**
+ * Reusable buffers for {@link SmithWatermanGotoh}. The buffers grow on demand
+ * and are kept between alignments, so once a workspace has seen the longest
+ * pair of sequences no further arrays are allocated for the matrices, rows,
+ * lanes and traceback.
+ * <p>
+ * A workspace is not thread safe; each worker thread should own one, e.g.
+ * through a {@link ThreadLocal}.
+ */
+
+public class AlignmentWorkspace {
+	/**
+	 * Characters of sequence #1
+	 */
+	char[] a1 = new char[0];
+
+	/**
+	 * Characters of sequence #2
+	 */
+	char[] a2 = new char[0];
+
+	/**
+	 * Residue codes of sequence #1, shared with the sequence and never
+	 * written
+	 */
+	byte[] codes1 = new byte[0];
+
+	/**
+	 * Residue codes of sequence #2, shared with the sequence and never
+	 * written
+	 */
+	byte[] codes2 = new byte[0];
+
+	/**
+	 * Residue codes of a group of database sequences, interleaved lane by
+	 * lane by {@link BatchSmithWatermanGotoh}
+	 */
+	byte[] batch = new byte[0];
+
+	/**
+	 * Score if xi aligns to a gap after yi
+	 */
+	float[] g = new float[0];
+
+	/**
+	 * Best score of alignment x1...xi to y1...yi
+	 */
+	float[] v = new float[0];
+
+	/**
+	 * 16-bit <code>g</code> row of the integer kernel
+	 */
+	short[] g16 = new short[0];
+
+	/**
+	 * 16-bit <code>v</code> row of the integer kernel
+	 */
+	short[] v16 = new short[0];
+
+	/**
+	 * 32-bit <code>g</code> row of the integer kernel
+	 */
+	int[] g32 = new int[0];
+
+	/**
+	 * 32-bit <code>v</code> row of the integer kernel
+	 */
+	int[] v32 = new int[0];
+
+	/**
+	 * Largest gain of the residues of sequence #1 from each position to the
+	 * end, see {@link #gains(int, QueryProfile)}
+	 */
+	int[] suffix = new int[0];
+
+	/**
+	 * Number of words shared on each diagonal, see
+	 * {@link BandedSmithWatermanGotoh}
+	 */
+	int[] diagonals = new int[0];
+
+	/**
+	 * Query profile built per call by the integer and striped kernels
+	 */
+	int[] profile = new int[0];
+
+	/**
+	 * Striped <code>H</code> column being read by the striped kernel
+	 */
+	int[] hLoad = new int[0];
+
+	/**
+	 * Striped <code>H</code> column being written by the striped kernel
+	 */
+	int[] hStore = new int[0];
+
+	/**
+	 * Striped <code>E</code> column of the striped kernel
+	 */
+	int[] e = new int[0];
+
+	/**
+	 * Lanes of <code>H</code> carried along a column by the striped kernel
+	 */
+	final int[] stripedH = new int[StripedSmithWatermanGotoh.LANES];
+
+	/**
+	 * Lanes of <code>F</code> of the striped kernel
+	 */
+	final int[] stripedF = new int[StripedSmithWatermanGotoh.LANES];
+
+	/**
+	 * Best <code>H</code> of the current column of the striped kernel, per
+	 * lane
+	 */
+	final int[] stripedMax = new int[StripedSmithWatermanGotoh.LANES];
+
+	/**
+	 * Database sequences of {@link BatchSmithWatermanGotoh} sorted by length,
+	 * with their index in the low bits
+	 */
+	long[] order = new long[0];
+
+	/**
+	 * Length of the sequence of each lane of the batch kernel
+	 */
+	final int[] batchLengths = new int[BatchSmithWatermanGotoh.LANES];
+
+	/**
+	 * Index of the sequence of each lane of the batch kernel, or -1
+	 */
+	final int[] batchIndices = new int[BatchSmithWatermanGotoh.LANES];
+
+	/**
+	 * Best score of each lane of the batch kernel
+	 */
+	final int[] batchBest = new int[BatchSmithWatermanGotoh.LANES];
+
+	/**
+	 * Offset of the profile row of the current residue of each lane of the
+	 * batch kernel
+	 */
+	final int[] batchOffsets = new int[BatchSmithWatermanGotoh.LANES];
+
+	/**
+	 * Lanes of the diagonal <code>v</code> of the batch kernel
+	 */
+	final int[] batchDiagonals = new int[BatchSmithWatermanGotoh.LANES];
+
+	/**
+	 * Lanes of <code>H</code> of the batch kernel
+	 */
+	final int[] batchH = new int[BatchSmithWatermanGotoh.LANES];
+
+	/**
+	 * Best score so far of each lane of the batch kernel
+	 */
+	final int[] batchMax = new int[BatchSmithWatermanGotoh.LANES];
+
+	/**
+	 * Traceback directions and gap extensions, see {@link PackedDirections}
+	 */
+	byte[] directions = new byte[0];
+
+	/**
+	 * Reversed sequence #1
+	 */
+	char[] reversed1 = new char[0];
+
+	/**
+	 * Reversed sequence #2
+	 */
+	char[] reversed2 = new char[0];
+
+	/**
+	 * Reversed markup line
+	 */
+	char[] reversed3 = new char[0];
+
+	/**
+	 * The cell where the traceback starts
+	 */
+	final Cell cell = new Cell();
+
+	/**
+	 * Constructor
+	 */
+	public AlignmentWorkspace() {
+		super();
+	}
+
+	/**
+	 * Copies the characters of both sequences into the workspace.
+	 *
+	 * @param s1
+	 *            sequence #1
+	 * @param s2
+	 *            sequence #2
+	 */
+	void load(Sequence s1, Sequence s2) {
+		int len1 = s1.length();
+		int len2 = s2.length();
+		if (a1.length < len1) {
+			a1 = new char[grow(len1)];
+		}
+		if (a2.length < len2) {
+			a2 = new char[grow(len2)];
+		}
+		s1.getSequence().getChars(0, len1, a1, 0);
+		s2.getSequence().getChars(0, len2, a2, 0);
+	}
+
+	/**
+	 * Points the workspace at the residue codes of both sequences.
+	 *
+	 * @param s1
+	 *            sequence #1
+	 * @param s2
+	 *            sequence #2
+	 */
+	void encode(Sequence s1, Sequence s2) {
+		codes1 = s1.getCodes();
+		codes2 = s2.getCodes();
+	}
+
+	/**
+	 * Points the workspace at the residue codes of sequence #1.
+	 *
+	 * @param s1
+	 *            sequence #1
+	 */
+	void encode(Sequence s1) {
+		codes1 = s1.getCodes();
+	}
+
+	/**
+	 * Fills {@link #suffix} with the largest score the encoded residues of
+	 * sequence #1 from position i to the end can add to any alignment with
+	 * the query: <code>suffix[i]</code> is the sum of the best positive score
+	 * of each of those residues against the query.
+	 *
+	 * @param length
+	 *            length of sequence #1
+	 * @param profile
+	 *            compiled query
+	 * @return the gain of the whole sequence, <code>suffix[0]</code>
+	 */
+	int gains(int length, QueryProfile profile) {
+		if (suffix.length < length + 1) {
+			suffix = new int[grow(length + 1)];
+		}
+		int[] gains = profile.getGains();
+		suffix[length] = 0;
+		for (int i = length - 1; i >= 0; i--) {
+			suffix[i] = suffix[i + 1] + gains[codes1[i]];
+		}
+		return suffix[0];
+	}
+
+	/**
+	 * Makes sure the interleaved codes hold size cells.
+	 *
+	 * @param size
+	 *            number of codes
+	 */
+	void ensureBatch(int size) {
+		if (batch.length < size) {
+			batch = new byte[grow(size)];
+		}
+	}
+
+	/**
+	 * Makes sure the batch order holds size entries.
+	 *
+	 * @param size
+	 *            number of database sequences
+	 * @return the batch order
+	 */
+	long[] ensureOrder(int size) {
+		if (order.length < size) {
+			order = new long[grow(size)];
+		}
+		return order;
+	}
+
+	/**
+	 * Makes sure the diagonal counts hold size cells.
+	 *
+	 * @param size
+	 *            number of diagonals
+	 * @return the diagonal counts
+	 */
+	int[] ensureDiagonals(int size) {
+		if (diagonals.length < size) {
+			diagonals = new int[grow(size)];
+		}
+		return diagonals;
+	}
+
+	/**
+	 * Makes sure the 16-bit rows hold n cells.
+	 *
+	 * @param n
+	 *            number of columns
+	 */
+	void ensureShortRows(int n) {
+		if (v16.length < n) {
+			g16 = new short[grow(n)];
+			v16 = new short[g16.length];
+		}
+	}
+
+	/**
+	 * Makes sure the 32-bit rows hold n cells.
+	 *
+	 * @param n
+	 *            number of columns
+	 */
+	void ensureIntRows(int n) {
+		if (v32.length < n) {
+			g32 = new int[grow(n)];
+			v32 = new int[g32.length];
+		}
+	}
+
+	/**
+	 * Makes sure the striped columns hold size cells and the striped profile
+	 * holds profileSize cells.
+	 *
+	 * @param size
+	 *            number of cells of a striped column
+	 * @param profileSize
+	 *            number of cells of the striped profile
+	 */
+	void ensureStriped(int size, int profileSize) {
+		if (hLoad.length < size) {
+			hLoad = new int[grow(size)];
+			hStore = new int[hLoad.length];
+			e = new int[hLoad.length];
+		}
+		ensureProfile(profileSize);
+	}
+
+	/**
+	 * Makes sure the per-call query profile holds size cells.
+	 *
+	 * @param size
+	 *            number of cells of the profile
+	 */
+	void ensureProfile(int size) {
+		if (profile.length < size) {
+			profile = new int[grow(size)];
+		}
+	}
+
+	/**
+	 * Makes sure the <code>g</code> and <code>v</code> rows hold n cells.
+	 *
+	 * @param n
+	 *            number of columns
+	 */
+	void ensureRows(int n) {
+		if (v.length < n) {
+			g = new float[grow(n)];
+			v = new float[g.length];
+		}
+	}
+
+	/**
+	 * Makes sure the packed traceback matrix holds size bytes and the
+	 * reversed buffers hold maxlen characters.
+	 *
+	 * @param size
+	 *            number of bytes of the packed matrix
+	 * @param maxlen
+	 *            maximum length of the aligned sequences
+	 */
+	void ensureTraceback(int size, int maxlen) {
+		if (directions.length < size) {
+			directions = new byte[grow(size)];
+		}
+		if (reversed1.length < maxlen) {
+			reversed1 = new char[grow(maxlen)];
+			reversed2 = new char[reversed1.length];
+			reversed3 = new char[reversed1.length];
+		}
+	}
+
+	/**
+	 * Returns a capacity of at least size with some headroom, so that a
+	 * slowly increasing size does not reallocate on every call.
+	 *
+	 * @param size
+	 *            required capacity
+	 * @return capacity to allocate
+	 */
+	private static int grow(int size) {
+		int capacity = size + (size >> 3);
+		return capacity < 0 ? size : capacity;
+	}
+}
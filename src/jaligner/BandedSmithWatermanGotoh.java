@@ -0,0 +1,301 @@
+package jaligner;
+
+import jaligner.matrix.ScaledMatrix;
+
+/**
+ * Score-only Smith-Waterman-Gotoh restricted to a band of diagonals around a
+ * seed diagonal. The seed is the diagonal sharing the most words of
+ * {@link QueryProfile#WORD} residues between the database sequence and the
+ * query; the band starts {@link #WIDTH} diagonals wide on either side of it.
+ * <p>
+ * A banded score only counts the alignments that stay in the band, so it is
+ * never above the full score: a band that reaches the cutoff proves that the
+ * pair does. If the band falls short while some alignment leaving it through
+ * its edge could still reach the cutoff, the band is doubled and run again,
+ * up to a quarter of the query. When the band is not enough, the decision is left to the full kernel, so
+ * {@link #reaches(Sequence, QueryProfile, float, AlignmentWorkspace)} always
+ * gives the same answer as
+ * {@link QuantizedSmithWatermanGotoh#reaches(Sequence, QueryProfile, float, AlignmentWorkspace)}.
+ */
+
+public class BandedSmithWatermanGotoh {
+	/**
+	 * Initial number of diagonals on either side of the seed diagonal
+	 */
+	public static final int WIDTH = 16;
+
+	/**
+	 * Fewest shared words for a diagonal to be used as seed
+	 */
+	public static final int SEEDS = 3;
+
+	/**
+	 * Result of {@link #construct} when the band falls short of the cutoff
+	 * but an alignment leaving the band through its edge might not
+	 */
+	static final int EDGE = -1;
+
+	/**
+	 * Hidden constructor
+	 */
+	private BandedSmithWatermanGotoh() {
+		super();
+	}
+
+	/**
+	 * Tells whether a band around the seed diagonal proves that the best
+	 * local alignment of a sequence against a precompiled query scores at
+	 * least <code>cutoff</code>. Bands are doubled while an alignment leaving
+	 * them could still reach the cutoff, up to a quarter of the query.
+	 *
+	 * @param s1
+	 *            sequence #1, the database sequence
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param cutoff
+	 *            score to reach, in the scale of the source matrix
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return true if a band reaches the cutoff; false if no band did, in
+	 *         which case the full matrix must decide
+	 */
+	public static boolean reachesInBand(Sequence s1, QueryProfile profile,
+			float cutoff, AlignmentWorkspace workspace) {
+		ScaledMatrix matrix = profile.getMatrix();
+		int scaledCutoff = matrix.scaleCutoff(cutoff);
+		int m = s1.length();
+		int n = profile.length();
+		if (scaledCutoff <= 0 || m == 0 || n == 0) {
+			return scaledCutoff <= 0;
+		}
+		workspace.encode(s1);
+		if (workspace.gains(m, profile) < scaledCutoff) {
+			return false;
+		}
+		int diagonal = seed(workspace.codes1, m, profile, workspace);
+		if (diagonal == Integer.MIN_VALUE) {
+			return false;
+		}
+		for (int width = WIDTH; 4 * (2 * width + 1) <= n; width *= 2) {
+			int score = construct(workspace.codes1, m, profile.getRows(), n,
+					diagonal - width, diagonal + width, matrix.getOpen(),
+					matrix.getExtend(), scaledCutoff, workspace.suffix,
+					workspace);
+			if (score >= scaledCutoff) {
+				return true;
+			}
+			if (score != EDGE) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether the best local alignment of a sequence against a
+	 * precompiled query scores at least <code>cutoff</code>, trying bands
+	 * before the full matrix.
+	 *
+	 * @param s1
+	 *            sequence #1, the database sequence
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param cutoff
+	 *            score to reach, in the scale of the source matrix
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return true if the alignment score reaches the cutoff
+	 */
+	public static boolean reaches(Sequence s1, QueryProfile profile,
+			float cutoff, AlignmentWorkspace workspace) {
+		return reachesInBand(s1, profile, cutoff, workspace)
+				|| QuantizedSmithWatermanGotoh.reaches(s1, profile, cutoff,
+						workspace);
+	}
+
+	/**
+	 * Computes the banded score of a sequence against a precompiled query.
+	 * The result is at most the full score, and equal to it when the best
+	 * alignment stays between diagonals <code>low</code> and
+	 * <code>high</code>, a diagonal being <code>j - i</code> for position
+	 * <code>i</code> of sequence #1 and <code>j</code> of the query.
+	 *
+	 * @param s1
+	 *            sequence #1, the database sequence
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param low
+	 *            lowest diagonal of the band
+	 * @param high
+	 *            highest diagonal of the band
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the banded score, in the scale of the source matrix
+	 */
+	public static float score(Sequence s1, QueryProfile profile, int low,
+			int high, AlignmentWorkspace workspace) {
+		if (s1.length() == 0 || profile.length() == 0 || low > high) {
+			return 0;
+		}
+		workspace.encode(s1);
+		ScaledMatrix matrix = profile.getMatrix();
+		return matrix.unscale(construct(workspace.codes1, s1.length(),
+				profile.getRows(), profile.length(), low, high, matrix
+						.getOpen(), matrix.getExtend(), Integer.MAX_VALUE,
+				null, workspace));
+	}
+
+	/**
+	 * Returns the diagonal sharing the most words with the query.
+	 *
+	 * @param codes
+	 *            codes of the database sequence
+	 * @param m
+	 *            length of the database sequence
+	 * @param profile
+	 *            compiled query
+	 * @param workspace
+	 *            holds the diagonal counts
+	 * @return the seed diagonal, or <code>Integer.MIN_VALUE</code> if no
+	 *         diagonal shares {@link #SEEDS} words
+	 */
+	static int seed(byte[] codes, int m, QueryProfile profile,
+			AlignmentWorkspace workspace) {
+		int n = profile.length();
+		int[] starts = profile.getWordStarts();
+		int[] positions = profile.getWordPositions();
+		int[] counts = workspace.ensureDiagonals(m + n);
+		for (int d = 0; d < m + n; d++) {
+			counts[d] = 0;
+		}
+
+		int best = 0;
+		int diagonal = Integer.MIN_VALUE;
+		for (int i = 0; i + QueryProfile.WORD <= m; i++) {
+			int word = QueryProfile.word(codes, i);
+			if (word < 0) {
+				continue;
+			}
+			for (int k = starts[word]; k < starts[word + 1]; k++) {
+				int d = positions[k] - i + m;
+				if (++counts[d] > best) {
+					best = counts[d];
+					diagonal = positions[k] - i;
+				}
+			}
+		}
+		return best >= SEEDS ? diagonal : Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Runs the recurrences of {@link SmithWatermanGotoh} over the cells
+	 * between diagonals <code>low</code> and <code>high</code>. Cells
+	 * outside of the band score 0, which only removes alignments, so the
+	 * banded score is never above the full score.
+	 *
+	 * @param a1
+	 *            codes of the database sequence
+	 * @param m
+	 *            length of the database sequence
+	 * @param rows
+	 *            query profile rows, as <code>rows[code * n + j]</code>
+	 * @param n
+	 *            length of the query
+	 * @param low
+	 *            lowest diagonal of the band
+	 * @param high
+	 *            highest diagonal of the band
+	 * @param o
+	 *            scaled open gap penalty
+	 * @param e
+	 *            scaled extend gap penalty
+	 * @param cutoff
+	 *            scaled score at which to stop
+	 * @param suffix
+	 *            largest gain of the database residues from each position to
+	 *            the end, or null to ignore the band edge
+	 * @param workspace
+	 *            holds the rows
+	 * @return the scaled banded score, the first score to reach
+	 *         <code>cutoff</code>, or {@link #EDGE} if the band falls short
+	 *         and an alignment through its edge plus the remaining gain could
+	 *         reach the cutoff
+	 */
+	static int construct(byte[] a1, int m, int[] rows, int n, int low,
+			int high, int o, int e, int cutoff, int[] suffix,
+			AlignmentWorkspace workspace) {
+		workspace.ensureIntRows(n + 1);
+		int[] g = workspace.g32;
+		int[] v = workspace.v32;
+
+		for (int j = 0; j <= n; j++) {
+			g[j] = -o;
+			v[j] = 0;
+		}
+
+		int best = 0;
+		boolean edge = false;
+
+		for (int i = 1; i <= m; i++) {
+			int first = Math.max(1, i + low);
+			int last = Math.min(n, i + high);
+			if (first > last) {
+				if (first > n) {
+					break;
+				}
+				continue;
+			}
+
+			int row = a1[i - 1] * n - 1;
+			int h = -o;
+			int vDiagonal = v[first - 1];
+			// The left neighbour of the band is outside of it in this row
+			v[first - 1] = 0;
+			for (int j = first; j <= last; j++) {
+				int f = vDiagonal + rows[row + j];
+
+				int g1 = g[j] - e;
+				int g2 = v[j] - o;
+				if (g2 > g1) {
+					g1 = g2;
+				}
+
+				int h1 = h - e;
+				int h2 = v[j - 1] - o;
+				h = h1 > h2 ? h1 : h2;
+
+				vDiagonal = v[j];
+				int vCurrent = f > g1 ? f : g1;
+				if (h > vCurrent) {
+					vCurrent = h;
+				}
+				if (vCurrent < 0) {
+					vCurrent = 0;
+				}
+
+				g[j] = g1;
+				v[j] = vCurrent;
+
+				if (vCurrent > best) {
+					best = vCurrent;
+					if (best >= cutoff) {
+						return best;
+					}
+				}
+			}
+
+			// An alignment can only leave the band from its edge cells: down
+			// from the lowest diagonal, or right from the highest one
+			if (suffix != null) {
+				if (first == i + low && v[first] + suffix[i] >= cutoff) {
+					edge = true;
+				}
+				if (last == i + high && last < n
+						&& v[last] + suffix[i] >= cutoff) {
+					edge = true;
+				}
+			}
+		}
+		return edge ? EDGE : best;
+	}
+}
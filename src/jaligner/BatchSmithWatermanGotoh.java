@@ -0,0 +1,268 @@
+package jaligner;
+
+import java.util.Arrays;
+import java.util.List;
+
+import jaligner.matrix.Alphabet;
+
+/**
+ * Score-only Smith-Waterman-Gotoh of one compiled query against many
+ * database sequences at once. Each of the {@link #LANES} lanes aligns a
+ * different database sequence, so the cells of the lanes never depend on
+ * each other and the inner loop runs over independent lanes, which HotSpot's
+ * superword pass can keep in vector registers.
+ * <p>
+ * Database sequences are sorted by length and aligned in groups of
+ * {@link #LANES}, so the lanes of a group end at about the same row. A lane
+ * whose sequence has ended reads {@link Alphabet#UNKNOWN}, which scores 0
+ * against every residue of a {@link jaligner.matrix.ScaledMatrix}; past its
+ * end the lane can only repeat or lower scores it already had, so its best
+ * score is unchanged.
+ * <p>
+ * The scores are bit-identical to
+ * {@link QuantizedSmithWatermanGotoh#scaledScore(Sequence, QueryProfile, AlignmentWorkspace)}.
+ */
+
+public class BatchSmithWatermanGotoh {
+	/**
+	 * Number of database sequences aligned together
+	 */
+	public static final int LANES = 8;
+
+	/**
+	 * Hidden constructor
+	 */
+	private BatchSmithWatermanGotoh() {
+		super();
+	}
+
+	/**
+	 * Computes the scores of the best local alignments of many sequences
+	 * against a precompiled query.
+	 *
+	 * @param database
+	 *            database sequences, each used as sequence #1
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the alignment scores, in the scale of the source matrix, in the
+	 *         order of <code>database</code>
+	 */
+	public static float[] scores(List<Sequence> database,
+			QueryProfile profile, AlignmentWorkspace workspace) {
+		int[] scaled = scaledScores(database, profile, Integer.MAX_VALUE,
+				workspace);
+		float[] scores = new float[scaled.length];
+		for (int k = 0; k < scaled.length; k++) {
+			scores[k] = profile.getMatrix().unscale(scaled[k]);
+		}
+		return scores;
+	}
+
+	/**
+	 * Tells which of many sequences have a best local alignment against a
+	 * precompiled query scoring at least <code>cutoff</code>. A group of
+	 * lanes stops as soon as every lane has reached the cutoff or ended.
+	 *
+	 * @param database
+	 *            database sequences, each used as sequence #1
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param cutoff
+	 *            score to reach, in the scale of the source matrix
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return for each sequence of <code>database</code>, in order, true if
+	 *         its alignment score reaches the cutoff
+	 */
+	public static boolean[] reaches(List<Sequence> database,
+			QueryProfile profile, float cutoff, AlignmentWorkspace workspace) {
+		int scaledCutoff = profile.getMatrix().scaleCutoff(cutoff);
+		int[] scaled = scaledScores(database, profile, scaledCutoff,
+				workspace);
+		boolean[] reached = new boolean[scaled.length];
+		for (int k = 0; k < scaled.length; k++) {
+			reached[k] = scaled[k] >= scaledCutoff;
+		}
+		return reached;
+	}
+
+	/**
+	 * Computes the scaled scores of many sequences against a precompiled
+	 * query, in groups of {@link #LANES} sequences of similar length.
+	 *
+	 * @param database
+	 *            database sequences, each used as sequence #1
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param cutoff
+	 *            scaled score at which a lane may stop
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the scaled scores, in the order of <code>database</code>; a
+	 *         score at or above <code>cutoff</code> may be lower than the
+	 *         real score
+	 */
+	static int[] scaledScores(List<Sequence> database, QueryProfile profile,
+			int cutoff, AlignmentWorkspace workspace) {
+		int count = database.size();
+		int[] scores = new int[count];
+		if (count == 0 || profile.length() == 0) {
+			return scores;
+		}
+
+		// Sort by length, keeping the original index in the low bits
+		long[] order = workspace.ensureOrder(count);
+		for (int k = 0; k < count; k++) {
+			order[k] = ((long) database.get(k).length() << 32) | k;
+		}
+		Arrays.sort(order, 0, count);
+
+		int[] lengths = workspace.batchLengths;
+		int[] indices = workspace.batchIndices;
+		int[] best = workspace.batchBest;
+		for (int start = 0; start < count; start += LANES) {
+			int lanes = Math.min(LANES, count - start);
+			int longest = 0;
+			for (int lane = 0; lane < LANES; lane++) {
+				if (lane < lanes) {
+					indices[lane] = (int) order[start + lane];
+					lengths[lane] = database.get(indices[lane]).length();
+				} else {
+					indices[lane] = -1;
+					lengths[lane] = 0;
+				}
+				longest = Math.max(longest, lengths[lane]);
+			}
+			if (longest == 0) {
+				continue;
+			}
+
+			interleave(database, indices, longest, workspace);
+			construct(workspace.batch, longest, lengths, profile.getRows(),
+					profile.length(), profile.getMatrix().getOpen(), profile
+							.getMatrix().getExtend(), cutoff, best, workspace);
+			for (int lane = 0; lane < lanes; lane++) {
+				scores[indices[lane]] = best[lane];
+			}
+		}
+		return scores;
+	}
+
+	/**
+	 * Encodes a group of sequences lane by lane into
+	 * {@link AlignmentWorkspace#batch}, as
+	 * <code>batch[i * LANES + lane]</code>, padding ended lanes with
+	 * {@link Alphabet#UNKNOWN}.
+	 *
+	 * @param database
+	 *            database sequences
+	 * @param indices
+	 *            index of the sequence of each lane, or -1 for an empty lane
+	 * @param longest
+	 *            length of the longest sequence of the group
+	 * @param workspace
+	 *            holds the interleaved codes
+	 */
+	private static void interleave(List<Sequence> database, int[] indices,
+			int longest, AlignmentWorkspace workspace) {
+		workspace.ensureBatch(longest * LANES);
+		byte[] batch = workspace.batch;
+		for (int lane = 0; lane < LANES; lane++) {
+			int i = 0;
+			if (indices[lane] >= 0) {
+				byte[] codes = database.get(indices[lane]).getCodes();
+				for (; i < codes.length; i++) {
+					batch[i * LANES + lane] = codes[i];
+				}
+			}
+			for (; i < longest; i++) {
+				batch[i * LANES + lane] = Alphabet.UNKNOWN;
+			}
+		}
+	}
+
+	/**
+	 * Runs the recurrences of {@link SmithWatermanGotoh} for
+	 * {@link #LANES} database sequences at once.
+	 *
+	 * @param batch
+	 *            interleaved codes of the database sequences
+	 * @param longest
+	 *            number of rows to run
+	 * @param lengths
+	 *            length of each lane
+	 * @param rows
+	 *            query profile rows, as <code>rows[code * n + j]</code>
+	 * @param n
+	 *            length of the query
+	 * @param o
+	 *            scaled open gap penalty
+	 * @param e
+	 *            scaled extend gap penalty
+	 * @param cutoff
+	 *            scaled score at which a lane is done
+	 * @param best
+	 *            filled with the best score of each lane
+	 * @param workspace
+	 *            holds the interleaved rows and lanes
+	 */
+	static void construct(byte[] batch, int longest, int[] lengths,
+			int[] rows, int n, int o, int e, int cutoff, int[] best,
+			AlignmentWorkspace workspace) {
+		int size = (n + 1) * LANES;
+		workspace.ensureIntRows(size);
+		int[] g = workspace.g32;
+		int[] v = workspace.v32;
+
+		for (int k = 0; k < size; k++) {
+			g[k] = -o;
+			v[k] = 0;
+		}
+
+		int[] offset = workspace.batchOffsets;
+		int[] vDiagonal = workspace.batchDiagonals;
+		int[] vH = workspace.batchH;
+		int[] vMax = workspace.batchMax;
+		for (int lane = 0; lane < LANES; lane++) {
+			vMax[lane] = 0;
+		}
+
+		for (int i = 0; i < longest; i++) {
+			for (int lane = 0; lane < LANES; lane++) {
+				offset[lane] = batch[i * LANES + lane] * n - 1;
+				vDiagonal[lane] = 0;
+				vH[lane] = -o;
+			}
+
+			for (int j = 1; j <= n; j++) {
+				int base = j * LANES;
+				int left = base - LANES;
+				for (int lane = 0; lane < LANES; lane++) {
+					int k = base + lane;
+					int f = vDiagonal[lane] + rows[offset[lane] + j];
+					int gap = Math.max(g[k] - e, v[k] - o);
+					int h = Math.max(vH[lane] - e, v[left + lane] - o);
+					vDiagonal[lane] = v[k];
+					int current = Math.max(Math.max(f, gap), Math.max(h, 0));
+					g[k] = gap;
+					v[k] = current;
+					vH[lane] = h;
+					vMax[lane] = Math.max(vMax[lane], current);
+				}
+			}
+
+			boolean done = true;
+			for (int lane = 0; lane < LANES; lane++) {
+				if (vMax[lane] < cutoff && i + 1 < lengths[lane]) {
+					done = false;
+				}
+			}
+			if (done) {
+				break;
+			}
+		}
+		System.arraycopy(vMax, 0, best, 0, LANES);
+	}
+}
@@ -0,0 +1,83 @@
+package jaligner;
+
+/**
+ * Traceback matrix packed into 4 bits per cell, two cells per byte. Each
+ * cell holds its {@link Directions direction} in the low 2 bits, and whether
+ * the vertical and horizontal gaps ending at the cell extend the gap of the
+ * cell above, or to the left, in {@link #VERTICAL} and {@link #HORIZONTAL}.
+ * The length of a gap is rebuilt during the traceback by following these
+ * bits, which replaces the two <code>short</code> matrices of gap sizes: the
+ * traceback takes half a byte per cell instead of five.
+ * <p>
+ * Row <code>i</code> starts at byte <code>i * stride(n)</code>, and columns
+ * <code>2k - 1</code> and <code>2k</code> share a byte, so tiles starting at
+ * an odd column, as in {@link WavefrontSmithWatermanGotoh}, never share a
+ * byte with their neighbours.
+ */
+
+final class PackedDirections {
+	/**
+	 * Mask of the direction bits
+	 */
+	static final int DIRECTION = 3;
+
+	/**
+	 * Set if the vertical gap ending at the cell extends the one above it
+	 */
+	static final int VERTICAL = 4;
+
+	/**
+	 * Set if the horizontal gap ending at the cell extends the one to its left
+	 */
+	static final int HORIZONTAL = 8;
+
+	/**
+	 * Hidden constructor
+	 */
+	private PackedDirections() {
+		super();
+	}
+
+	/**
+	 * @param n
+	 *            number of columns
+	 * @return Returns the number of bytes of a row.
+	 */
+	static int stride(int n) {
+		return (n >> 1) + 1;
+	}
+
+	/**
+	 * @param j
+	 *            column
+	 * @return Returns the byte of column <code>j</code> within its row.
+	 */
+	static int offset(int j) {
+		return (j + 1) >> 1;
+	}
+
+	/**
+	 * @param j
+	 *            column
+	 * @return Returns the shift of the bits of column <code>j</code> within
+	 *         its byte.
+	 */
+	static int shift(int j) {
+		return (~j & 1) << 2;
+	}
+
+	/**
+	 * Returns the 4 bits of a cell.
+	 * 
+	 * @param directions
+	 *            packed matrix
+	 * @param row
+	 *            first byte of the row of the cell
+	 * @param j
+	 *            column of the cell
+	 * @return direction and gap extension bits
+	 */
+	static int get(byte[] directions, int row, int j) {
+		return (directions[row + offset(j)] >> shift(j)) & 0xF;
+	}
+}
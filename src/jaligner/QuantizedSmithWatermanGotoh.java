@@ -0,0 +1,302 @@
+package jaligner;
+
+import jaligner.matrix.Alphabet;
+import jaligner.matrix.ScaledMatrix;
+
+/**
+ * Score-only Smith-Waterman-Gotoh on integer scores. The rows are first kept
+ * in 16 bits; if a cell saturates the alignment is computed again in 32 bits.
+ * Since the scores and penalties of a {@link ScaledMatrix} are exact integer
+ * multiples of the <code>float</code> ones, the result is bit-identical to
+ * {@link SmithWatermanGotoh#score(Sequence, Sequence, jaligner.matrix.Matrix, float, float)}.
+ */
+
+public class QuantizedSmithWatermanGotoh {
+	/**
+	 * Returned by the 16-bit kernel when a cell saturates
+	 */
+	static final int OVERFLOW = -1;
+
+	/**
+	 * Hidden constructor
+	 */
+	private QuantizedSmithWatermanGotoh() {
+		super();
+	}
+
+	/**
+	 * Computes the score of the best local alignment of two sequences.
+	 * 
+	 * @param s1
+	 *            sequence #1
+	 * @param s2
+	 *            sequence #2
+	 * @param matrix
+	 *            scaled scoring matrix and gap penalties
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the alignment score, in the scale of the source matrix
+	 */
+	public static float score(Sequence s1, Sequence s2, ScaledMatrix matrix,
+			AlignmentWorkspace workspace) {
+		return matrix.unscale(scaledScore(s1, s2, matrix, workspace));
+	}
+
+	/**
+	 * Computes the scaled score of the best local alignment of two sequences.
+	 * 
+	 * @param s1
+	 *            sequence #1
+	 * @param s2
+	 *            sequence #2
+	 * @param matrix
+	 *            scaled scoring matrix and gap penalties
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the alignment score multiplied by {@link ScaledMatrix#getScale()}
+	 */
+	public static int scaledScore(Sequence s1, Sequence s2,
+			ScaledMatrix matrix, AlignmentWorkspace workspace) {
+		workspace.encode(s1, s2);
+		int m = s1.length() + 1;
+		int n = s2.length() + 1;
+
+		// Per-call profile of sequence #2, see QueryProfile
+		int length = n - 1;
+		workspace.ensureProfile(Alphabet.SIZE * length);
+		int[] rows = workspace.profile;
+		for (int code = 0; code < Alphabet.SIZE; code++) {
+			for (int j = 0; j < length; j++) {
+				rows[code * length + j] = matrix.getScore(code,
+						workspace.codes2[j]);
+			}
+		}
+
+		int score = construct16(workspace.codes1, m, rows, n,
+				matrix.getOpen(), matrix.getExtend(), workspace);
+		if (score == OVERFLOW) {
+			score = construct32(workspace.codes1, m, rows, n,
+					matrix.getOpen(), matrix.getExtend(), Integer.MAX_VALUE,
+					null, workspace);
+		}
+		return score;
+	}
+
+	/**
+	 * Computes the score of the best local alignment of a sequence against a
+	 * precompiled query.
+	 * 
+	 * @param s1
+	 *            sequence #1
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the alignment score, in the scale of the source matrix
+	 */
+	public static float score(Sequence s1, QueryProfile profile,
+			AlignmentWorkspace workspace) {
+		return profile.getMatrix().unscale(
+				scaledScore(s1, profile, workspace));
+	}
+
+	/**
+	 * Computes the scaled score of the best local alignment of a sequence
+	 * against a precompiled query. The substitution scores are read from the
+	 * row of the profile for each residue of sequence #1.
+	 * 
+	 * @param s1
+	 *            sequence #1
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the alignment score multiplied by {@link ScaledMatrix#getScale()}
+	 */
+	public static int scaledScore(Sequence s1, QueryProfile profile,
+			AlignmentWorkspace workspace) {
+		workspace.encode(s1);
+		ScaledMatrix matrix = profile.getMatrix();
+		int m = s1.length() + 1;
+		int n = profile.length() + 1;
+		int score = construct16(workspace.codes1, m, profile.getRows(), n,
+				matrix.getOpen(), matrix.getExtend(), workspace);
+		if (score == OVERFLOW) {
+			score = construct32(workspace.codes1, m, profile.getRows(), n,
+					matrix.getOpen(), matrix.getExtend(), Integer.MAX_VALUE,
+					null, workspace);
+		}
+		return score;
+	}
+
+	/**
+	 * Tells whether the best local alignment of a sequence against a
+	 * precompiled query scores at least <code>cutoff</code>. Returns as soon
+	 * as a cell reaches the cutoff, and gives up as soon as the best score of
+	 * the current row plus the largest gain the remaining residues of
+	 * sequence #1 could add stays below it. The answer is always the same as
+	 * <code>score(s1, profile, workspace) &gt;= cutoff</code>.
+	 * 
+	 * @param s1
+	 *            sequence #1
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param cutoff
+	 *            score to reach, in the scale of the source matrix
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return true if the alignment score reaches the cutoff
+	 */
+	public static boolean reaches(Sequence s1, QueryProfile profile,
+			float cutoff, AlignmentWorkspace workspace) {
+		ScaledMatrix matrix = profile.getMatrix();
+		int scaledCutoff = matrix.scaleCutoff(cutoff);
+		if (scaledCutoff <= 0) {
+			return true;
+		}
+		workspace.encode(s1);
+		int m = s1.length() + 1;
+		if (workspace.gains(m - 1, profile) < scaledCutoff) {
+			return false;
+		}
+		return construct32(workspace.codes1, m, profile.getRows(),
+				profile.length() + 1, matrix.getOpen(), matrix.getExtend(),
+				scaledCutoff, workspace.suffix, workspace) >= scaledCutoff;
+	}
+
+	/**
+	 * Runs the recurrences of {@link SmithWatermanGotoh} with 16-bit rows,
+	 * reading the substitution scores from the profile rows of sequence #2
+	 * (see {@link QueryProfile}).
+	 * Gap scores never drop below <code>-open</code> because <code>v</code>
+	 * is never negative, so <code>-open</code> stands in for negative
+	 * infinity.
+	 * 
+	 * @return the scaled score, or {@link #OVERFLOW} if a cell saturated
+	 */
+	static int construct16(byte[] a1, int m, int[] rows, int n, int o,
+			int e, AlignmentWorkspace workspace) {
+		workspace.ensureShortRows(n);
+		short[] g = workspace.g16;
+		short[] v = workspace.v16;
+
+		for (int j = 0; j < n; j++) {
+			g[j] = (short) -o;
+			v[j] = 0;
+		}
+
+		int f, h, g1, g2, h1, h2, vDiagonal, vCurrent;
+		int best = 0;
+
+		for (int i = 1; i < m; i++) {
+			int row = a1[i - 1] * (n - 1) - 1;
+			h = -o;
+			vDiagonal = 0;
+			for (int j = 1; j < n; j++) {
+				f = vDiagonal + rows[row + j];
+
+				g1 = g[j] - e;
+				g2 = v[j] - o;
+				if (g2 > g1) {
+					g1 = g2;
+				}
+
+				h1 = h - e;
+				h2 = v[j - 1] - o;
+				h = h1 > h2 ? h1 : h2;
+
+				vDiagonal = v[j];
+				vCurrent = f > g1 ? f : g1;
+				if (h > vCurrent) {
+					vCurrent = h;
+				}
+				if (vCurrent < 0) {
+					vCurrent = 0;
+				} else if (vCurrent >= Short.MAX_VALUE) {
+					return OVERFLOW;
+				}
+
+				g[j] = (short) g1;
+				v[j] = (short) vCurrent;
+
+				if (vCurrent > best) {
+					best = vCurrent;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Runs the recurrences of {@link SmithWatermanGotoh} with 32-bit rows,
+	 * reading the substitution scores from the profile rows of sequence #2.
+	 * Stops as soon as a cell reaches <code>cutoff</code>, or after a row if
+	 * <code>suffix</code> is given and the best score of the row plus
+	 * <code>suffix[i]</code>, the largest gain of the remaining rows, is below
+	 * it.
+	 * 
+	 * @return the scaled score, or the best score so far if the alignment
+	 *         stopped early
+	 */
+	static int construct32(byte[] a1, int m, int[] rows, int n, int o,
+			int e, int cutoff, int[] suffix, AlignmentWorkspace workspace) {
+		workspace.ensureIntRows(n);
+		int[] g = workspace.g32;
+		int[] v = workspace.v32;
+
+		for (int j = 0; j < n; j++) {
+			g[j] = -o;
+			v[j] = 0;
+		}
+
+		int f, h, g1, g2, h1, h2, vDiagonal, vCurrent, rowBest;
+		int best = 0;
+
+		for (int i = 1; i < m; i++) {
+			int row = a1[i - 1] * (n - 1) - 1;
+			h = -o;
+			vDiagonal = 0;
+			rowBest = 0;
+			for (int j = 1; j < n; j++) {
+				f = vDiagonal + rows[row + j];
+
+				g1 = g[j] - e;
+				g2 = v[j] - o;
+				if (g2 > g1) {
+					g1 = g2;
+				}
+
+				h1 = h - e;
+				h2 = v[j - 1] - o;
+				h = h1 > h2 ? h1 : h2;
+
+				vDiagonal = v[j];
+				vCurrent = f > g1 ? f : g1;
+				if (h > vCurrent) {
+					vCurrent = h;
+				}
+				if (vCurrent < 0) {
+					vCurrent = 0;
+				}
+
+				g[j] = g1;
+				v[j] = vCurrent;
+
+				if (vCurrent > rowBest) {
+					rowBest = vCurrent;
+					if (rowBest >= cutoff) {
+						return rowBest;
+					}
+				}
+			}
+
+			if (rowBest > best) {
+				best = rowBest;
+			}
+			if (suffix != null && rowBest + suffix[i] < cutoff) {
+				return best;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,261 @@
+package jaligner;
+
+import jaligner.matrix.Alphabet;
+import jaligner.matrix.ScaledMatrix;
+
+/**
+ * A query sequence compiled once against a {@link ScaledMatrix}, to be aligned
+ * against many database sequences. Holds the query residue codes, one row of
+ * scaled scores per residue code, the striped layout used by
+ * {@link StripedSmithWatermanGotoh} and the score of the query aligned with
+ * itself. A profile is immutable and can be shared by all threads.
+ */
+
+public class QueryProfile {
+	/**
+	 * The query sequence
+	 */
+	private final Sequence query;
+
+	/**
+	 * Scaled scoring matrix and gap penalties
+	 */
+	private final ScaledMatrix matrix;
+
+	/**
+	 * Residue codes of the query
+	 */
+	private final byte[] codes;
+
+	/**
+	 * Scores of each residue code against each query position, as
+	 * <code>rows[code * length + j]</code>
+	 */
+	private final int[] rows;
+
+	/**
+	 * Largest score of each residue code against any query position, or 0
+	 * if all are negative
+	 */
+	private final int[] gains;
+
+	/**
+	 * Number of query positions holding each residue code
+	 */
+	private final int[] composition;
+
+	/**
+	 * Start of the positions of each word in {@link #wordPositions}, as
+	 * <code>wordPositions[wordStarts[word]]</code> to
+	 * <code>wordPositions[wordStarts[word + 1] - 1]</code>
+	 */
+	private final int[] wordStarts;
+
+	/**
+	 * Query positions of the words, grouped by word
+	 */
+	private final int[] wordPositions;
+
+	/**
+	 * Number of segments of the striped layout
+	 */
+	private final int segments;
+
+	/**
+	 * Scores in the striped layout of {@link StripedSmithWatermanGotoh}
+	 */
+	private final int[] striped;
+
+	/**
+	 * Scaled score of the query aligned with itself
+	 */
+	private final int selfScore;
+
+	/**
+	 * Number of residues of the words indexed for seeding
+	 */
+	public static final int WORD = 3;
+
+	/**
+	 * Number of distinct words
+	 */
+	static final int WORDS = Alphabet.UNKNOWN * Alphabet.UNKNOWN
+			* Alphabet.UNKNOWN;
+
+	/**
+	 * Compiles a query.
+	 * 
+	 * @param query
+	 *            the query sequence
+	 * @param matrix
+	 *            scaled scoring matrix and gap penalties
+	 */
+	public QueryProfile(Sequence query, ScaledMatrix matrix) {
+		this.query = query;
+		this.matrix = matrix;
+
+		int length = query.length();
+		codes = query.getCodes();
+
+		rows = new int[Alphabet.SIZE * length];
+		for (int code = 0; code < Alphabet.SIZE; code++) {
+			for (int j = 0; j < length; j++) {
+				rows[code * length + j] = matrix.getScore(code, codes[j]);
+			}
+		}
+
+		gains = new int[Alphabet.SIZE];
+		for (int code = 0; code < Alphabet.SIZE; code++) {
+			for (int j = 0; j < length; j++) {
+				gains[code] = Math.max(gains[code], rows[code * length + j]);
+			}
+		}
+
+		composition = new int[Alphabet.SIZE];
+		for (int j = 0; j < length; j++) {
+			composition[codes[j]]++;
+		}
+
+		wordStarts = new int[WORDS + 1];
+		for (int j = 0; j + WORD <= length; j++) {
+			int word = word(codes, j);
+			if (word >= 0) {
+				wordStarts[word + 1]++;
+			}
+		}
+		for (int word = 0; word < WORDS; word++) {
+			wordStarts[word + 1] += wordStarts[word];
+		}
+		wordPositions = new int[wordStarts[WORDS]];
+		int[] next = wordStarts.clone();
+		for (int j = 0; j + WORD <= length; j++) {
+			int word = word(codes, j);
+			if (word >= 0) {
+				wordPositions[next[word]++] = j;
+			}
+		}
+
+		segments = (length + StripedSmithWatermanGotoh.LANES - 1)
+				/ StripedSmithWatermanGotoh.LANES;
+		striped = new int[Alphabet.SIZE * segments
+				* StripedSmithWatermanGotoh.LANES];
+		StripedSmithWatermanGotoh.stripe(codes, length, segments, matrix,
+				striped);
+
+		selfScore = QuantizedSmithWatermanGotoh.scaledScore(query, query,
+				matrix, new AlignmentWorkspace());
+	}
+
+	/**
+	 * @return Returns the query sequence.
+	 */
+	public Sequence getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return Returns the scaled scoring matrix.
+	 */
+	public ScaledMatrix getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * @return Returns the length of the query.
+	 */
+	public int length() {
+		return codes.length;
+	}
+
+	/**
+	 * @return Returns the residue codes of the query.
+	 */
+	byte[] getCodes() {
+		return codes;
+	}
+
+	/**
+	 * @return Returns the scores by residue code and query position.
+	 */
+	int[] getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return Returns the largest score of each residue code against the
+	 *         query, at least 0.
+	 */
+	int[] getGains() {
+		return gains;
+	}
+
+	/**
+	 * @return Returns the number of query positions holding each residue
+	 *         code.
+	 */
+	int[] getComposition() {
+		return composition;
+	}
+
+	/**
+	 * Returns the word of {@link #WORD} residues starting at a position.
+	 * 
+	 * @param codes
+	 *            residue codes
+	 * @param start
+	 *            first position of the word
+	 * @return the word, or -1 if it holds an unknown residue
+	 */
+	static int word(byte[] codes, int start) {
+		int word = 0;
+		for (int k = start; k < start + WORD; k++) {
+			if (codes[k] == Alphabet.UNKNOWN) {
+				return -1;
+			}
+			word = word * Alphabet.UNKNOWN + codes[k];
+		}
+		return word;
+	}
+
+	/**
+	 * @return Returns the start of the positions of each word.
+	 */
+	int[] getWordStarts() {
+		return wordStarts;
+	}
+
+	/**
+	 * @return Returns the query positions of the words, grouped by word.
+	 */
+	int[] getWordPositions() {
+		return wordPositions;
+	}
+
+	/**
+	 * @return Returns the number of segments of the striped layout.
+	 */
+	int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * @return Returns the scores in the striped layout.
+	 */
+	int[] getStriped() {
+		return striped;
+	}
+
+	/**
+	 * @return Returns the scaled score of the query aligned with itself.
+	 */
+	public int getScaledSelfScore() {
+		return selfScore;
+	}
+
+	/**
+	 * @return Returns the score of the query aligned with itself.
+	 */
+	public float getSelfScore() {
+		return matrix.unscale(selfScore);
+	}
+}
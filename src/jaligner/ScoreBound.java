@@ -0,0 +1,117 @@
+package jaligner;
+
+import jaligner.matrix.Alphabet;
+
+/**
+ * Cheap upper bounds on the score of the best local alignment of a sequence
+ * against a compiled query, used to skip alignments that can never reach a
+ * cutoff.
+ * <p>
+ * Gaps only lower the score of a local alignment, so its score is at most
+ * the sum of the positive substitution scores of its aligned pairs. Each
+ * residue of either sequence is aligned at most once, which gives two
+ * bounds:
+ * <ul>
+ * <li>the sum, over the residues of sequence #1, of their best score against
+ * any query position;</li>
+ * <li>the sum, over the query positions, of their best score against any
+ * residue present in sequence #1.</li>
+ * </ul>
+ * Both are admissible, and {@link #scaledBound(Sequence, QueryProfile, AlignmentWorkspace)}
+ * returns the lower of the two. Neither looks at the order of the residues,
+ * so the bound mostly removes short sequences and sequences with little in
+ * common with the query.
+ */
+
+public class ScoreBound {
+	/**
+	 * Hidden constructor
+	 */
+	private ScoreBound() {
+		super();
+	}
+
+	/**
+	 * Returns an upper bound on the score of the best local alignment of a
+	 * sequence against a precompiled query.
+	 *
+	 * @param s1
+	 *            sequence #1
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return a score, in the scale of the source matrix, that the alignment
+	 *         score never exceeds
+	 */
+	public static float bound(Sequence s1, QueryProfile profile,
+			AlignmentWorkspace workspace) {
+		return profile.getMatrix().unscale(
+				scaledBound(s1, profile, workspace));
+	}
+
+	/**
+	 * Tells whether the bound proves that the best local alignment of a
+	 * sequence against a precompiled query scores below
+	 * <code>cutoff</code>.
+	 *
+	 * @param s1
+	 *            sequence #1
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param cutoff
+	 *            score to reach, in the scale of the source matrix
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return true if the alignment score cannot reach the cutoff
+	 */
+	public static boolean excludes(Sequence s1, QueryProfile profile,
+			float cutoff, AlignmentWorkspace workspace) {
+		return scaledBound(s1, profile, workspace) < profile.getMatrix()
+				.scaleCutoff(cutoff);
+	}
+
+	/**
+	 * Returns an upper bound on the scaled score of the best local alignment
+	 * of a sequence against a precompiled query.
+	 *
+	 * @param s1
+	 *            sequence #1
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return a scaled score that the alignment score never exceeds
+	 */
+	public static int scaledBound(Sequence s1, QueryProfile profile,
+			AlignmentWorkspace workspace) {
+		workspace.encode(s1);
+		byte[] codes = workspace.codes1;
+		int[] gains = profile.getGains();
+		int length = s1.length();
+
+		int bound1 = 0;
+		boolean[] present = new boolean[Alphabet.SIZE];
+		for (int i = 0; i < length; i++) {
+			bound1 += gains[codes[i]];
+			present[codes[i]] = true;
+		}
+
+		int[] scores = profile.getMatrix().getScores();
+		int[] composition = profile.getComposition();
+		int bound2 = 0;
+		for (int code2 = 0; code2 < Alphabet.SIZE; code2++) {
+			if (composition[code2] == 0) {
+				continue;
+			}
+			int best = 0;
+			for (int code1 = 0; code1 < Alphabet.SIZE; code1++) {
+				if (present[code1]) {
+					best = Math.max(best, scores[code1 * Alphabet.SIZE + code2]);
+				}
+			}
+			bound2 += composition[code2] * best;
+		}
+		return Math.min(bound1, bound2);
+	}
+}
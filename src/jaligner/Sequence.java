@@ -18,6 +18,8 @@
  
 package jaligner;
 
+import jaligner.matrix.Alphabet;
+
 import java.io.Serializable;
 
 /**
@@ -47,6 +49,11 @@ public class Sequence implements Serializable {
 	 */
 	private String sequence;
 	
+	/**
+	 * Residue codes of the sequence, see {@link Alphabet}, built on first use.
+	 */
+	private transient byte[] codes = null;
+	
 	/**
 	 * Sequence id.
 	 */
@@ -78,6 +85,17 @@ public class Sequence implements Serializable {
 	   this.sequence = sequence;
 	}
 
+	/**
+	 * Constructor for a sequence whose residues are already encoded
+	 * @param sequence
+	 * @param codes residue codes of the sequence, see {@link Alphabet}
+	 */
+	public Sequence(String sequence, byte[] codes) {
+	   super(); 
+	   this.sequence = sequence;
+	   this.codes = codes;
+	}
+
 	
 	/**
 	 * Constructor
@@ -108,6 +126,21 @@ public class Sequence implements Serializable {
      */
     public void setSequence(String sequence) {
         this.sequence = sequence;
+        this.codes = null;
+    }
+
+    /**
+     * Returns the residue codes of the sequence, see {@link Alphabet}. The
+     * codes are computed once and shared; they must not be modified.
+     * @return residue codes
+     */
+    public byte[] getCodes() {
+        byte[] codes = this.codes;
+        if (codes == null) {
+            codes = Alphabet.encode(this.sequence);
+            this.codes = codes;
+        }
+        return codes;
     }
 	
 	/**
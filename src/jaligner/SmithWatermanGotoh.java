@@ -18,6 +18,8 @@
 
 package jaligner;
 
+import jaligner.matrix.Alphabet;
+import jaligner.matrix.DenseMatrix;
 import jaligner.matrix.Matrix;
 
 /**
@@ -37,7 +39,10 @@ public class SmithWatermanGotoh {
 
 
 	/**
-	 * Aligns two sequences by Smith-Waterman algorithm
+	 * Aligns two sequences by Smith-Waterman algorithm. Only the score is
+	 * computed here; the aligned sequences and their statistics are built on
+	 * first access, so callers that only look at the score never pay for the
+	 * traceback.
 	 * 
 	 * @param s1
 	 *            sequene #1 ({@link Sequence})
@@ -56,35 +61,57 @@ public class SmithWatermanGotoh {
 	 */
 	public static Alignment align(Sequence s1, Sequence s2, Matrix matrix,
 			float o, float e) {
-		float[][] scores = matrix.getScores();
+		// Only the score is computed now; the traceback runs when the
+		// aligned sequences are first asked for
+		float score = s1.length() == 0 || s2.length() == 0 ? Float.NEGATIVE_INFINITY
+				: score(s1, s2, matrix, o, e);
+		Alignment alignment = new Alignment(s1, s2, matrix, o, e, score);
+		alignment.setName1(s1.getId());
+		alignment.setName2(s2.getId());
+		return alignment;
+	}
 
-		SmithWatermanGotoh sw = new SmithWatermanGotoh();
+	/**
+	 * Aligns two sequences by Smith-Waterman algorithm, reusing the buffers of
+	 * the passed workspace instead of allocating new ones
+	 * 
+	 * @param s1
+	 *            sequene #1 ({@link Sequence})
+	 * @param s2
+	 *            sequene #2 ({@link Sequence})
+	 * @param matrix
+	 *            scoring matrix ({@link Matrix})
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @param workspace
+	 *            buffers owned by the calling thread ({@link AlignmentWorkspace})
+	 * @return alignment object contains the two aligned sequences, the
+	 *         alignment score and alignment statistics
+	 * @see Sequence
+	 * @see Matrix
+	 */
+	public static Alignment align(Sequence s1, Sequence s2, Matrix matrix,
+			float o, float e, AlignmentWorkspace workspace) {
+		float[][] scores = matrix.getScores();
 
 		int m = s1.length() + 1;
 		int n = s2.length() + 1;
 
-		byte[] pointers = new byte[m * n];
-
-		// Initializes the boundaries of the traceback matrix to STOP.
-		for (int i = 0, k = 0; i < m; i++, k += n) {
-			pointers[k] = Directions.STOP;
-		}
-		for (int j = 1; j < n; j++) {
-			pointers[j] = Directions.STOP;
-		}
+		workspace.load(s1, s2);
+		workspace.ensureRows(n);
+		workspace.ensureTraceback(m * PackedDirections.stride(n), s1.length()
+				+ s2.length());
 
-		short[] sizesOfVerticalGaps = new short[m * n];
-		short[] sizesOfHorizontalGaps = new short[m * n];
-		for (int i = 0, k = 0; i < m; i++, k += n) {
-			for (int j = 0; j < n; j++) {
-				sizesOfVerticalGaps[k + j] = sizesOfHorizontalGaps[k + j] = 1;
-			}
-		}
+		// Every cell starts as STOP, with no gap extension
+		java.util.Arrays.fill(workspace.directions, 0, m
+				* PackedDirections.stride(n), (byte) 0);
 
-		Cell cell = sw.construct(s1, s2, scores, o, e, pointers,
-				sizesOfVerticalGaps, sizesOfHorizontalGaps);
-		Alignment alignment = sw.traceback(s1, s2, matrix, pointers, cell,
-				sizesOfVerticalGaps, sizesOfHorizontalGaps);
+		Cell cell = WavefrontSmithWatermanGotoh.applies(m, n) ? WavefrontSmithWatermanGotoh
+				.construct(m, n, scores, o, e, workspace)
+				: construct(m, n, scores, o, e, workspace);
+		Alignment alignment = traceback(n, matrix, cell, workspace);
 		alignment.setName1(s1.getId());
 		alignment.setName2(s2.getId());
 		alignment.setMatrix(matrix);
@@ -94,33 +121,213 @@ public class SmithWatermanGotoh {
 	}
 
 	/**
-	 * Constructs directions matrix for the traceback
-	 * 
+	 * Computes the score of the best local alignment of two sequences by
+	 * Smith-Waterman algorithm, without building the traceback matrices or an
+	 * {@link Alignment}. Only the O(n) rows <code>g</code> and <code>v</code>
+	 * of {@link #construct} are kept.
+	 *
 	 * @param s1
-	 *            sequence #1
+	 *            sequene #1 ({@link Sequence})
 	 * @param s2
-	 *            sequence #2
+	 *            sequene #2 ({@link Sequence})
 	 * @param matrix
-	 *            scoring matrix
+	 *            scoring matrix ({@link Matrix})
 	 * @param o
 	 *            open gap penalty
 	 * @param e
 	 *            extend gap penalty
-	 * @return The cell where the traceback starts.
+	 * @return the alignment score, the same value as
+	 *         {@link Alignment#calculateScore()} of the alignment returned by
+	 *         {@link #align(Sequence, Sequence, Matrix, float, float)}
 	 */
-	private Cell construct(Sequence s1, Sequence s2, float[][] matrix, float o,
-			float e, byte[] pointers, short[] sizesOfVerticalGaps,
-			short[] sizesOfHorizontalGaps) {	
-		char[] a1 = s1.toArray();
-		char[] a2 = s2.toArray();
+	public static float score(Sequence s1, Sequence s2, Matrix matrix,
+			float o, float e) {
+		return score(s1, s2, matrix, o, e, new AlignmentWorkspace());
+	}
+
+	/**
+	 * Computes the score of the best local alignment of two sequences like
+	 * {@link #score(Sequence, Sequence, Matrix, float, float)}, reusing the
+	 * rows of the passed workspace. Nothing is allocated once the workspace
+	 * has grown to the length of the sequences. When the matrix has a
+	 * {@link Matrix#getDense() dense form}, the residue codes of the
+	 * sequences index it directly.
+	 *
+	 * @param s1
+	 *            sequene #1 ({@link Sequence})
+	 * @param s2
+	 *            sequene #2 ({@link Sequence})
+	 * @param matrix
+	 *            scoring matrix ({@link Matrix})
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @param workspace
+	 *            buffers owned by the calling thread ({@link AlignmentWorkspace})
+	 * @return the alignment score
+	 */
+	public static float score(Sequence s1, Sequence s2, Matrix matrix,
+			float o, float e, AlignmentWorkspace workspace) {
+		DenseMatrix dense = matrix.getDense();
+		if (dense != null) {
+			return score(s1, s2, dense, o, e, workspace);
+		}
+		float[][] scores = matrix.getScores();
 
 		int m = s1.length() + 1;
 		int n = s2.length() + 1;
 
+		workspace.load(s1, s2);
+		workspace.ensureRows(n);
+
+		char[] a1 = workspace.a1;
+		char[] a2 = workspace.a2;
+
 		float f; // score of alignment x1...xi to y1...yi if xi aligns to yi
-		float[] g = new float[n]; // score if xi aligns to a gap after yi
+		float[] g = workspace.g; // score if xi aligns to a gap after yi
 		float h; // score if yi aligns to a gap after xi
-		float[] v = new float[n]; // best score of alignment x1...xi to y1...yi
+		float[] v = workspace.v; // best score of alignment x1...xi to y1...yi
+		float vDiagonal;
+
+		for (int j = 0; j < n; j++) {
+			g[j] = Float.NEGATIVE_INFINITY;
+			v[j] = 0;
+		}
+
+		float g1, g2, h1, h2;
+
+		// An empty alignment scores 0, as does calculateScore() on it
+		float best = 0;
+
+		for (int i = 1; i < m; i++) {
+			float[] row = scores[a1[i - 1]];
+			h = Float.NEGATIVE_INFINITY;
+			vDiagonal = v[0];
+			for (int j = 1; j < n; j++) {
+				f = vDiagonal + row[a2[j - 1]];
+
+				g1 = g[j] - e;
+				g2 = v[j] - o;
+				g[j] = g1 > g2 ? g1 : g2;
+
+				h1 = h - e;
+				h2 = v[j - 1] - o;
+				h = h1 > h2 ? h1 : h2;
+
+				vDiagonal = v[j];
+				v[j] = maximum(f, g[j], h, 0);
+
+				if (v[j] > best) {
+					best = v[j];
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Computes the score of the best local alignment of two sequences from
+	 * their residue codes.
+	 *
+	 * @param s1
+	 *            sequene #1 ({@link Sequence})
+	 * @param s2
+	 *            sequene #2 ({@link Sequence})
+	 * @param matrix
+	 *            scoring matrix by residue code ({@link DenseMatrix})
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @param workspace
+	 *            buffers owned by the calling thread ({@link AlignmentWorkspace})
+	 * @return the alignment score
+	 */
+	public static float score(Sequence s1, Sequence s2, DenseMatrix matrix,
+			float o, float e, AlignmentWorkspace workspace) {
+		float[] scores = matrix.getScores();
+
+		int m = s1.length() + 1;
+		int n = s2.length() + 1;
+
+		workspace.encode(s1, s2);
+		workspace.ensureRows(n);
+
+		byte[] a1 = workspace.codes1;
+		byte[] a2 = workspace.codes2;
+
+		float f; // score of alignment x1...xi to y1...yi if xi aligns to yi
+		float[] g = workspace.g; // score if xi aligns to a gap after yi
+		float h; // score if yi aligns to a gap after xi
+		float[] v = workspace.v; // best score of alignment x1...xi to y1...yi
+		float vDiagonal;
+
+		for (int j = 0; j < n; j++) {
+			g[j] = Float.NEGATIVE_INFINITY;
+			v[j] = 0;
+		}
+
+		float g1, g2, h1, h2;
+
+		// An empty alignment scores 0, as does calculateScore() on it
+		float best = 0;
+
+		for (int i = 1; i < m; i++) {
+			int row = a1[i - 1] * Alphabet.SIZE;
+			h = Float.NEGATIVE_INFINITY;
+			vDiagonal = v[0];
+			for (int j = 1; j < n; j++) {
+				f = vDiagonal + scores[row + a2[j - 1]];
+
+				g1 = g[j] - e;
+				g2 = v[j] - o;
+				g[j] = g1 > g2 ? g1 : g2;
+
+				h1 = h - e;
+				h2 = v[j - 1] - o;
+				h = h1 > h2 ? h1 : h2;
+
+				vDiagonal = v[j];
+				v[j] = maximum(f, g[j], h, 0);
+
+				if (v[j] > best) {
+					best = v[j];
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Constructs directions matrix for the traceback
+	 * 
+	 * @param m
+	 *            length of sequence #1 + 1
+	 * @param n
+	 *            length of sequence #2 + 1
+	 * @param matrix
+	 *            scoring matrix
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @param workspace
+	 *            holds both sequences, the rows and the traceback matrices
+	 * @return The cell where the traceback starts.
+	 */
+	private static Cell construct(int m, int n, float[][] matrix, float o,
+			float e, AlignmentWorkspace workspace) {	
+		char[] a1 = workspace.a1;
+		char[] a2 = workspace.a2;
+
+		byte[] directions = workspace.directions;
+		int stride = PackedDirections.stride(n);
+
+		float f; // score of alignment x1...xi to y1...yi if xi aligns to yi
+		float[] g = workspace.g; // score if xi aligns to a gap after yi
+		float h; // score if yi aligns to a gap after xi
+		float[] v = workspace.v; // best score of alignment x1...xi to y1...yi
 		float vDiagonal;
 
 		g[0] = Float.NEGATIVE_INFINITY;
@@ -133,23 +340,26 @@ public class SmithWatermanGotoh {
 		}
 
 		float similarityScore, g1, g2, h1, h2;
+		int bits;
 
-		Cell cell = new Cell();
+		Cell cell = workspace.cell;
+		cell.set(0, 0, Float.NEGATIVE_INFINITY);
 
-		for (int i = 1, k = n; i < m; i++, k += n) {
+		for (int i = 1, k = stride; i < m; i++, k += stride) {
 			h = Float.NEGATIVE_INFINITY;
 			vDiagonal = v[0];
-			for (int j = 1, l = k + 1; j < n; j++, l++) {
+			for (int j = 1; j < n; j++) {
 				similarityScore = matrix[a1[i - 1]][a2[j - 1]];
 
 				// Fill the matrices
 				f = vDiagonal + similarityScore;
 
+				bits = 0;
 				g1 = g[j] - e;
 				g2 = v[j] - o;
 				if (g1 > g2) {
 					g[j] = g1;
-					sizesOfVerticalGaps[l] = (short) (sizesOfVerticalGaps[l - n] + 1);
+					bits |= PackedDirections.VERTICAL;
 				} else {
 					g[j] = g2;
 				}
@@ -158,7 +368,7 @@ public class SmithWatermanGotoh {
 				h2 = v[j - 1] - o;
 				if (h1 > h2) {
 					h = h1;
-					sizesOfHorizontalGaps[l] = (short) (sizesOfHorizontalGaps[l - 1] + 1);
+					bits |= PackedDirections.HORIZONTAL;
 				} else {
 					h = h2;
 				}
@@ -168,14 +378,16 @@ public class SmithWatermanGotoh {
 
 				// Determine the traceback direction
 				if (v[j] == 0) {
-					pointers[l] = Directions.STOP;
+					bits |= Directions.STOP;
 				} else if (v[j] == f) {
-					pointers[l] = Directions.DIAGONAL;
+					bits |= Directions.DIAGONAL;
 				} else if (v[j] == g[j]) {
-					pointers[l] = Directions.UP;
+					bits |= Directions.UP;
 				} else {
-					pointers[l] = Directions.LEFT;
+					bits |= Directions.LEFT;
 				}
+				directions[k + PackedDirections.offset(j)] |= bits << PackedDirections
+						.shift(j);
 
 				// Set the traceback start at the current cell i, j and score
 				if (v[j] > cell.getScore()) {
@@ -187,42 +399,40 @@ public class SmithWatermanGotoh {
 	}
 
 	/**
-	 * Returns the alignment of two sequences based on the passed array of
-	 * pointers
+	 * Returns the alignment of two sequences based on the traceback matrices
+	 * of the workspace
 	 * 
-	 * @param s1
-	 *            sequence #1
-	 * @param s2
-	 *            sequence #2
+	 * @param n
+	 *            length of sequence #2 + 1
 	 * @param m
 	 *            scoring matrix
 	 * @param cell
 	 *            The cell where the traceback starts.
+	 * @param workspace
+	 *            holds both sequences, the traceback matrices and the
+	 *            reversed buffers
 	 * @return {@link Alignment}with the two aligned sequences and alignment
 	 *         score.
 	 * @see Cell
 	 * @see Alignment
 	 */
-	private Alignment traceback(Sequence s1, Sequence s2, Matrix m,
-			byte[] pointers, Cell cell, short[] sizesOfVerticalGaps,
-			short[] sizesOfHorizontalGaps) 
+	private static Alignment traceback(int n, Matrix m,
+			Cell cell, AlignmentWorkspace workspace) 
         {
-		char[] a1 = s1.toArray();
-		char[] a2 = s2.toArray();
+		char[] a1 = workspace.a1;
+		char[] a2 = workspace.a2;
+
+		byte[] directions = workspace.directions;
+		int stride = PackedDirections.stride(n);
 		
 		float[][] scores = m.getScores();
 
-		int n = s2.length() + 1;
-
 		Alignment alignment = new Alignment();
 		alignment.setScore(cell.getScore());
 
-		int maxlen = s1.length() + s2.length(); // maximum length after the
-												// aligned sequences
-
-		char[] reversed1 = new char[maxlen]; // reversed sequence #1
-		char[] reversed2 = new char[maxlen]; // reversed sequence #2
-		char[] reversed3 = new char[maxlen]; // reversed markup
+		char[] reversed1 = workspace.reversed1; // reversed sequence #1
+		char[] reversed2 = workspace.reversed2; // reversed sequence #2
+		char[] reversed3 = workspace.reversed3; // reversed markup
 
 		int len1 = 0; // length of sequence #1 after alignment
 		int len2 = 0; // length of sequence #2 after alignment
@@ -236,26 +446,30 @@ public class SmithWatermanGotoh {
 
 		int i = cell.getRow(); // traceback start row
 		int j = cell.getCol(); // traceback start col
-		int k = i * n;
+		int k = i * stride;
 
 		boolean stillGoing = true; // traceback flag: true -> continue & false
 								   // -> stop
 
 		while (stillGoing) {
-			switch (pointers[k + j]) {
+			int bits = PackedDirections.get(directions, k, j);
+			switch (bits & PackedDirections.DIRECTION) {
 			case Directions.UP:
-				for (int l = 0, len = sizesOfVerticalGaps[k + j]; l < len; l++) {
+				// The gap goes on up while its cells extend the gap above them
+				for (boolean extended = true; extended;) {
+					extended = (bits & PackedDirections.VERTICAL) != 0;
 					reversed1[len1++] = a1[--i];
 					reversed2[len2++] = Alignment.GAP;
 					reversed3[len3++] = Markups.GAP;
-					k -= n;
+					k -= stride;
 					gaps++;
+					bits = PackedDirections.get(directions, k, j);
 				}
 				break;
 			case Directions.DIAGONAL:
 				c1 = a1[--i];
 				c2 = a2[--j];
-				k -= n;
+				k -= stride;
 				reversed1[len1++] = c1;
 				reversed2[len2++] = c2;
 				if (c1 == c2) {
@@ -270,11 +484,14 @@ public class SmithWatermanGotoh {
 				}
 				break;
 			case Directions.LEFT:
-				for (int l = 0, len = sizesOfHorizontalGaps[k + j]; l < len; l++) {
+				// The gap goes on left while its cells extend the gap before
+				for (boolean extended = true; extended;) {
+					extended = (bits & PackedDirections.HORIZONTAL) != 0;
 					reversed1[len1++] = Alignment.GAP;
 					reversed2[len2++] = a2[--j];
 					reversed3[len3++] = Markups.GAP;
 					gaps++;
+					bits = PackedDirections.get(directions, k, j);
 				}
 				break;
 			case Directions.STOP:
@@ -307,7 +524,7 @@ public class SmithWatermanGotoh {
 	 *            float #4
 	 * @return The maximum of a, b, c and d.
 	 */
-	private static float maximum(float a, float b, float c, float d) {
+	static float maximum(float a, float b, float c, float d) {
 		if (a > b) {
 			if (a > c) {
 				return a > d ? a : d;
@@ -0,0 +1,333 @@
+package jaligner;
+
+import jaligner.matrix.Alphabet;
+import jaligner.matrix.ScaledMatrix;
+
+/**
+ * Score-only Smith-Waterman-Gotoh in the striped layout of Farrar (2007).
+ * Sequence #2 is the query: position <code>j</code> of the query is kept in
+ * lane <code>j / segments</code> of segment <code>j % segments</code>, so
+ * the cells of one segment never depend on each other and the inner loops
+ * run over {@link #LANES} independent lanes, which HotSpot's superword pass
+ * turns into vector instructions. Vertical gaps that cross from one lane to
+ * the next are fixed up afterwards by the lazy-F loop.
+ * <p>
+ * The score is bit-identical to
+ * {@link QuantizedSmithWatermanGotoh#scaledScore(Sequence, Sequence, ScaledMatrix, AlignmentWorkspace)}.
+ */
+
+public class StripedSmithWatermanGotoh {
+	/**
+	 * Number of lanes of a segment
+	 */
+	public static final int LANES = 8;
+
+	/**
+	 * Hidden constructor
+	 */
+	private StripedSmithWatermanGotoh() {
+		super();
+	}
+
+	/**
+	 * Computes the score of the best local alignment of two sequences.
+	 * 
+	 * @param s1
+	 *            sequence #1, the database sequence
+	 * @param s2
+	 *            sequence #2, the query
+	 * @param matrix
+	 *            scaled scoring matrix and gap penalties
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the alignment score, in the scale of the source matrix
+	 */
+	public static float score(Sequence s1, Sequence s2, ScaledMatrix matrix,
+			AlignmentWorkspace workspace) {
+		return matrix.unscale(scaledScore(s1, s2, matrix, workspace));
+	}
+
+	/**
+	 * Computes the scaled score of the best local alignment of two sequences.
+	 * 
+	 * @param s1
+	 *            sequence #1, the database sequence
+	 * @param s2
+	 *            sequence #2, the query
+	 * @param matrix
+	 *            scaled scoring matrix and gap penalties
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the alignment score multiplied by {@link ScaledMatrix#getScale()}
+	 */
+	public static int scaledScore(Sequence s1, Sequence s2,
+			ScaledMatrix matrix, AlignmentWorkspace workspace) {
+		if (s1.length() == 0 || s2.length() == 0) {
+			return 0;
+		}
+		workspace.encode(s1, s2);
+		int length = s2.length();
+		int segments = (length + LANES - 1) / LANES;
+		workspace.ensureStriped(segments * LANES, Alphabet.SIZE * segments
+				* LANES);
+		stripe(workspace.codes2, length, segments, matrix, workspace.profile);
+		return construct(workspace.codes1, s1.length(), segments,
+				workspace.profile, matrix.getOpen(), matrix.getExtend(),
+				Integer.MAX_VALUE, null, workspace);
+	}
+
+	/**
+	 * Computes the score of the best local alignment of a sequence against a
+	 * precompiled query.
+	 * 
+	 * @param s1
+	 *            sequence #1, the database sequence
+	 * @param profile
+	 *            compiled query
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the alignment score, in the scale of the source matrix
+	 */
+	public static float score(Sequence s1, QueryProfile profile,
+			AlignmentWorkspace workspace) {
+		return profile.getMatrix().unscale(
+				scaledScore(s1, profile, workspace));
+	}
+
+	/**
+	 * Computes the scaled score of the best local alignment of a sequence
+	 * against a precompiled query, using its striped layout.
+	 * 
+	 * @param s1
+	 *            sequence #1, the database sequence
+	 * @param profile
+	 *            compiled query
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the alignment score multiplied by {@link ScaledMatrix#getScale()}
+	 */
+	public static int scaledScore(Sequence s1, QueryProfile profile,
+			AlignmentWorkspace workspace) {
+		if (s1.length() == 0 || profile.length() == 0) {
+			return 0;
+		}
+		workspace.encode(s1);
+		int segments = profile.getSegments();
+		workspace.ensureStriped(segments * LANES, 0);
+		ScaledMatrix matrix = profile.getMatrix();
+		return construct(workspace.codes1, s1.length(), segments,
+				profile.getStriped(), matrix.getOpen(), matrix.getExtend(),
+				Integer.MAX_VALUE, null, workspace);
+	}
+
+	/**
+	 * Tells whether the best local alignment of a sequence against a
+	 * precompiled query scores at least <code>cutoff</code>, stopping as soon
+	 * as the answer is known. See
+	 * {@link QuantizedSmithWatermanGotoh#reaches(Sequence, QueryProfile, float, AlignmentWorkspace)}
+	 * for the bounds used.
+	 * 
+	 * @param s1
+	 *            sequence #1, the database sequence
+	 * @param profile
+	 *            compiled query
+	 * @param cutoff
+	 *            score to reach, in the scale of the source matrix
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return true if the alignment score reaches the cutoff
+	 */
+	public static boolean reaches(Sequence s1, QueryProfile profile,
+			float cutoff, AlignmentWorkspace workspace) {
+		ScaledMatrix matrix = profile.getMatrix();
+		int scaledCutoff = matrix.scaleCutoff(cutoff);
+		if (scaledCutoff <= 0) {
+			return true;
+		}
+		if (s1.length() == 0 || profile.length() == 0) {
+			return false;
+		}
+		workspace.encode(s1);
+		if (workspace.gains(s1.length(), profile) < scaledCutoff) {
+			return false;
+		}
+		int segments = profile.getSegments();
+		workspace.ensureStriped(segments * LANES, 0);
+		return construct(workspace.codes1, s1.length(), segments,
+				profile.getStriped(), matrix.getOpen(), matrix.getExtend(),
+				scaledCutoff, workspace.suffix, workspace) >= scaledCutoff;
+	}
+
+	/**
+	 * Builds the striped query profile: for every residue code, the scores
+	 * against each query position in striped order. Positions past the end of
+	 * the query score 0; they come after every real position, so no local
+	 * alignment through them can beat the best real one.
+	 * 
+	 * @param query
+	 *            codes of the query
+	 * @param length
+	 *            length of the query
+	 * @param segments
+	 *            number of segments
+	 * @param matrix
+	 *            scaled scoring matrix
+	 * @param profile
+	 *            array to fill, at least Alphabet.SIZE * segments * LANES
+	 *            long
+	 */
+	static void stripe(byte[] query, int length, int segments,
+			ScaledMatrix matrix, int[] profile) {
+		int[] scores = matrix.getScores();
+		int size = segments * LANES;
+		for (int code = 0; code < Alphabet.SIZE; code++) {
+			int row = code * Alphabet.SIZE;
+			int offset = code * size;
+			for (int segment = 0; segment < segments; segment++) {
+				for (int lane = 0; lane < LANES; lane++) {
+					int j = lane * segments + segment;
+					profile[offset + segment * LANES + lane] = j < length ? scores[row
+							+ query[j]]
+							: 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs the striped recurrences over every residue of the database
+	 * sequence. After each residue, stops if the best score reaches
+	 * <code>cutoff</code>, or if <code>suffix</code> is given and the best
+	 * score of the column plus <code>suffix[i + 1]</code>, the largest gain of
+	 * the remaining residues, is below it.
+	 * 
+	 * @param database
+	 *            codes of the database sequence
+	 * @param length
+	 *            length of the database sequence
+	 * @param segments
+	 *            number of segments of the query
+	 * @param profile
+	 *            striped query profile
+	 * @param o
+	 *            scaled open gap penalty
+	 * @param e
+	 *            scaled extend gap penalty
+	 * @param cutoff
+	 *            scaled score at which to stop
+	 * @param suffix
+	 *            largest gain of the database residues from each position to
+	 *            the end, or null to never give up
+	 * @param workspace
+	 *            holds the striped columns and lanes
+	 * @return the scaled score, or the best score so far if the alignment
+	 *         stopped early
+	 */
+	static int construct(byte[] database, int length, int segments,
+			int[] profile, int o, int e, int cutoff, int[] suffix,
+			AlignmentWorkspace workspace) {
+		int size = segments * LANES;
+		int[] hLoad = workspace.hLoad;
+		int[] hStore = workspace.hStore;
+		int[] vE = workspace.e;
+
+		// Gap scores never drop below -o, so -o stands in for -infinity
+		for (int k = 0; k < size; k++) {
+			hLoad[k] = 0;
+			hStore[k] = 0;
+			vE[k] = -o;
+		}
+
+		int[] vH = workspace.stripedH;
+		int[] vF = workspace.stripedF;
+		// Best H of the current column, per lane
+		int[] vMax = workspace.stripedMax;
+		for (int lane = 0; lane < LANES; lane++) {
+			vMax[lane] = 0;
+		}
+		int best = 0;
+
+		for (int i = 0; i < length; i++) {
+			int offset = database[i] * size;
+
+			// H of the previous column, shifted down by one query position
+			int last = (segments - 1) * LANES;
+			for (int lane = LANES - 1; lane > 0; lane--) {
+				vH[lane] = hStore[last + lane - 1];
+			}
+			vH[0] = 0;
+			for (int lane = 0; lane < LANES; lane++) {
+				vF[lane] = -o;
+			}
+
+			int[] swap = hLoad;
+			hLoad = hStore;
+			hStore = swap;
+
+			for (int segment = 0; segment < segments; segment++) {
+				int base = segment * LANES;
+				int row = offset + base;
+				for (int lane = 0; lane < LANES; lane++) {
+					int h = vH[lane] + profile[row + lane];
+					h = Math.max(h, vE[base + lane]);
+					h = Math.max(h, vF[lane]);
+					h = Math.max(h, 0);
+					vMax[lane] = Math.max(vMax[lane], h);
+					hStore[base + lane] = h;
+					h -= o;
+					vE[base + lane] = Math.max(vE[base + lane] - e, h);
+					vF[lane] = Math.max(vF[lane] - e, h);
+					vH[lane] = hLoad[base + lane];
+				}
+			}
+
+			// Lazy-F: carry vertical gaps from the end of each lane into the
+			// start of the next one until they can no longer change H
+			for (int lane = LANES - 1; lane > 0; lane--) {
+				vF[lane] = vF[lane - 1];
+			}
+			vF[0] = -o;
+			for (int segment = 0;;) {
+				int base = segment * LANES;
+				boolean changed = false;
+				for (int lane = 0; lane < LANES; lane++) {
+					if (vF[lane] > hStore[base + lane] - o) {
+						changed = true;
+					}
+				}
+				if (!changed) {
+					break;
+				}
+				for (int lane = 0; lane < LANES; lane++) {
+					int k = base + lane;
+					int h = Math.max(hStore[k], vF[lane]);
+					hStore[k] = h;
+					vMax[lane] = Math.max(vMax[lane], h);
+					vE[k] = Math.max(vE[k], h - o);
+					vF[lane] -= e;
+				}
+				if (++segment == segments) {
+					segment = 0;
+					for (int lane = LANES - 1; lane > 0; lane--) {
+						vF[lane] = vF[lane - 1];
+					}
+					vF[0] = -o;
+				}
+			}
+
+			int column = 0;
+			for (int lane = 0; lane < LANES; lane++) {
+				column = Math.max(column, vMax[lane]);
+				vMax[lane] = 0;
+			}
+			best = Math.max(best, column);
+			if (best >= cutoff
+					|| (suffix != null && column + suffix[i + 1] < cutoff)) {
+				break;
+			}
+		}
+		workspace.hLoad = hLoad;
+		workspace.hStore = hStore;
+		return best;
+	}
+}
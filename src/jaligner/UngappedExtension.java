@@ -0,0 +1,136 @@
+package jaligner;
+
+import jaligner.matrix.ScaledMatrix;
+
+/**
+ * Ungapped seed-and-extend scoring of a database sequence against a compiled
+ * query, in the manner of BLAST. Every word of {@link QueryProfile#WORD}
+ * residues shared with the query is a seed; each seed is extended without
+ * gaps in both directions until the running score falls more than an X-drop
+ * below the best score of that direction. A seed lying on a stretch of a
+ * diagonal already covered by an earlier extension is skipped.
+ * <p>
+ * Every extension is a local alignment without gaps, so the result is never
+ * above the score of
+ * {@link SmithWatermanGotoh#score(Sequence, Sequence, jaligner.matrix.Matrix, float, float)}
+ * with the same matrix; it is below it when the best alignment needs gaps,
+ * holds no shared word, or is cut short by the X-drop.
+ */
+
+public class UngappedExtension {
+	/**
+	 * Hidden constructor
+	 */
+	private UngappedExtension() {
+		super();
+	}
+
+	/**
+	 * Returns the best score of the ungapped extensions of the words shared
+	 * by a sequence and a precompiled query.
+	 *
+	 * @param s1
+	 *            sequence #1, the database sequence
+	 * @param profile
+	 *            compiled query, used as sequence #2
+	 * @param xDrop
+	 *            how far, in the scale of the source matrix, the running score
+	 *            of an extension may fall below its best before it stops
+	 * @param workspace
+	 *            buffers owned by the calling thread
+	 * @return the best extension score, in the scale of the source matrix, or
+	 *         0 if no word is shared
+	 */
+	public static float score(Sequence s1, QueryProfile profile, float xDrop,
+			AlignmentWorkspace workspace) {
+		ScaledMatrix matrix = profile.getMatrix();
+		if (s1.length() < QueryProfile.WORD
+				|| profile.length() < QueryProfile.WORD) {
+			return 0;
+		}
+		workspace.encode(s1);
+		return matrix.unscale(scaledScore(workspace.codes1, s1.length(),
+				profile, matrix.scaleCutoff(xDrop), workspace));
+	}
+
+	/**
+	 * Extends every shared word of a sequence and a query.
+	 *
+	 * @param codes
+	 *            codes of the database sequence
+	 * @param m
+	 *            length of the database sequence
+	 * @param profile
+	 *            compiled query
+	 * @param xDrop
+	 *            scaled X-drop
+	 * @param workspace
+	 *            holds, for each diagonal, the end of its last extension
+	 * @return the best scaled extension score
+	 */
+	static int scaledScore(byte[] codes, int m, QueryProfile profile,
+			int xDrop, AlignmentWorkspace workspace) {
+		int n = profile.length();
+		int[] rows = profile.getRows();
+		int[] starts = profile.getWordStarts();
+		int[] positions = profile.getWordPositions();
+		int[] covered = workspace.ensureDiagonals(m + n);
+		for (int d = 0; d < m + n; d++) {
+			covered[d] = 0;
+		}
+
+		int best = 0;
+		for (int i = 0; i + QueryProfile.WORD <= m; i++) {
+			int word = QueryProfile.word(codes, i);
+			if (word < 0) {
+				continue;
+			}
+			for (int k = starts[word]; k < starts[word + 1]; k++) {
+				int j = positions[k];
+				int d = j - i + m;
+				if (i < covered[d]) {
+					continue;
+				}
+
+				int seed = 0;
+				for (int x = 0; x < QueryProfile.WORD; x++) {
+					seed += rows[codes[i + x] * n + j + x];
+				}
+
+				// Right of the word
+				int score = 0;
+				int right = 0;
+				int end = i + QueryProfile.WORD;
+				for (int x = i + QueryProfile.WORD, y = j + QueryProfile.WORD; x < m
+						&& y < n; x++, y++) {
+					score += rows[codes[x] * n + y];
+					if (score > right) {
+						right = score;
+					} else if (score < right - xDrop) {
+						end = x;
+						break;
+					}
+					end = x + 1;
+				}
+
+				// Left of the word
+				score = 0;
+				int left = 0;
+				for (int x = i - 1, y = j - 1; x >= 0 && y >= 0; x--, y--) {
+					score += rows[codes[x] * n + y];
+					if (score > left) {
+						left = score;
+					} else if (score < left - xDrop) {
+						break;
+					}
+				}
+
+				covered[d] = end;
+				if (seed + left + right > best) {
+					best = seed + left + right;
+				}
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,304 @@
+package jaligner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tiled construction of the traceback matrices of {@link SmithWatermanGotoh}
+ * for very large pairs of sequences. The matrix is cut into tiles of
+ * {@link #TILE} x {@link #TILE} cells; a tile only needs the bottom row of
+ * the tile above it and the right column of the tile to its left, so all the
+ * tiles of one anti-diagonal of tiles are filled in parallel on the common
+ * {@link ForkJoinPool}, one anti-diagonal after the other.
+ * <p>
+ * Tiles start at odd columns and {@link #TILE} is even, so no byte of the
+ * {@link PackedDirections} matrix is written by two tiles.
+ * <p>
+ * Every cell is computed with the same operations as the sequential
+ * construction, and ties between best cells are broken in the same row-major
+ * order, so the matrices, the start cell and the alignment are identical.
+ */
+
+class WavefrontSmithWatermanGotoh {
+	/**
+	 * Number of cells from which {@link SmithWatermanGotoh#align} fills the
+	 * matrices in parallel
+	 */
+	static final long CELLS = 1L << 22;
+
+	/**
+	 * Number of rows and columns of a tile, even
+	 */
+	static final int TILE = 256;
+
+	/**
+	 * Hidden constructor
+	 */
+	private WavefrontSmithWatermanGotoh() {
+		super();
+	}
+
+	/**
+	 * Tells whether a pair is large enough, and the common pool wide enough,
+	 * for the tiled construction to pay off.
+	 *
+	 * @param m
+	 *            length of sequence #1 + 1
+	 * @param n
+	 *            length of sequence #2 + 1
+	 * @return true to use {@link #construct}
+	 */
+	static boolean applies(int m, int n) {
+		return (long) m * n >= CELLS
+				&& ForkJoinPool.getCommonPoolParallelism() > 1;
+	}
+
+	/**
+	 * Constructs the directions matrix for the traceback, tile by tile.
+	 *
+	 * @param m
+	 *            length of sequence #1 + 1
+	 * @param n
+	 *            length of sequence #2 + 1
+	 * @param matrix
+	 *            scoring matrix
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @param workspace
+	 *            holds both sequences and the traceback matrices
+	 * @return The cell where the traceback starts.
+	 */
+	static Cell construct(int m, int n, float[][] matrix, float o, float e,
+			AlignmentWorkspace workspace) {
+		int tileRows = (m - 2) / TILE + 1;
+		int tileCols = (n - 2) / TILE + 1;
+
+		// Bottom rows of the tile rows, and right columns of the tile
+		// columns; row 0 of each holds the boundary of the matrix
+		Edges edges = new Edges(tileRows, tileCols, m, n);
+		Tile[][] tiles = new Tile[tileRows][tileCols];
+		for (int r = 0; r < tileRows; r++) {
+			for (int c = 0; c < tileCols; c++) {
+				tiles[r][c] = new Tile(r, c, m, n, matrix, o, e, workspace,
+						edges);
+			}
+		}
+		ForkJoinPool.commonPool().invoke(new Wavefront(tiles));
+
+		// The first cell in row-major order holding the highest score
+		Cell cell = workspace.cell;
+		cell.set(0, 0, Float.NEGATIVE_INFINITY);
+		for (int r = 0; r < tileRows; r++) {
+			for (int c = 0; c < tileCols; c++) {
+				Tile tile = tiles[r][c];
+				if (tile.score > cell.getScore()) {
+					cell.set(tile.row, tile.col, tile.score);
+				} else if (tile.score == cell.getScore()) {
+					if (tile.row < cell.getRow()
+							|| (tile.row == cell.getRow() && tile.col < cell
+									.getCol())) {
+						cell.set(tile.row, tile.col, tile.score);
+					}
+				}
+			}
+		}
+		return cell;
+	}
+
+	/**
+	 * Runs the anti-diagonals of tiles one after the other, the tiles of an
+	 * anti-diagonal in parallel
+	 */
+	private static class Wavefront extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Tile[][] tiles;
+
+		Wavefront(Tile[][] tiles) {
+			this.tiles = tiles;
+		}
+
+		@Override
+		protected void compute() {
+			int tileRows = tiles.length;
+			int tileCols = tiles[0].length;
+			for (int d = 0; d < tileRows + tileCols - 1; d++) {
+				List<Tile> wave = new ArrayList<Tile>();
+				for (int r = Math.max(0, d - tileCols + 1); r <= Math.min(d,
+						tileRows - 1); r++) {
+					wave.add(tiles[r][d - r]);
+				}
+				invokeAll(wave);
+			}
+		}
+	}
+
+	/**
+	 * Rows and columns shared between neighbouring tiles
+	 */
+	private static class Edges {
+		/**
+		 * <code>v</code> of the last row of each tile row, by column; entry
+		 * 0 is the top of the matrix
+		 */
+		final float[][] vRow;
+
+		/**
+		 * <code>g</code> of the last row of each tile row, by column
+		 */
+		final float[][] gRow;
+
+		/**
+		 * <code>v</code> of the last column of each tile column, by row;
+		 * entry 0 is the left of the matrix
+		 */
+		final float[][] vColumn;
+
+		/**
+		 * <code>h</code> of the last column of each tile column, by row
+		 */
+		final float[][] hColumn;
+
+		Edges(int tileRows, int tileCols, int m, int n) {
+			vRow = new float[tileRows + 1][n];
+			gRow = new float[tileRows + 1][n];
+			vColumn = new float[tileCols + 1][m];
+			hColumn = new float[tileCols + 1][m];
+			Arrays.fill(gRow[0], Float.NEGATIVE_INFINITY);
+			Arrays.fill(hColumn[0], Float.NEGATIVE_INFINITY);
+		}
+	}
+
+	/**
+	 * One tile of the matrices
+	 */
+	private static class Tile extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int r;
+		private final int c;
+		private final int m;
+		private final int n;
+		private final float[][] matrix;
+		private final float o;
+		private final float e;
+		private final AlignmentWorkspace workspace;
+		private final Edges edges;
+
+		/**
+		 * Best cell of the tile, the first in row-major order
+		 */
+		int row;
+		int col;
+		float score = Float.NEGATIVE_INFINITY;
+
+		Tile(int r, int c, int m, int n, float[][] matrix, float o, float e,
+				AlignmentWorkspace workspace, Edges edges) {
+			this.r = r;
+			this.c = c;
+			this.m = m;
+			this.n = n;
+			this.matrix = matrix;
+			this.o = o;
+			this.e = e;
+			this.workspace = workspace;
+			this.edges = edges;
+		}
+
+		@Override
+		protected void compute() {
+			char[] a1 = workspace.a1;
+			char[] a2 = workspace.a2;
+			byte[] directions = workspace.directions;
+			int stride = PackedDirections.stride(n);
+
+			int firstRow = r * TILE + 1;
+			int lastRow = Math.min(m - 1, firstRow + TILE - 1);
+			int firstCol = c * TILE + 1;
+			int lastCol = Math.min(n - 1, firstCol + TILE - 1);
+			int width = lastCol - firstCol + 1;
+
+			// Rows of the tile, seeded with the bottom row of the tile above
+			float[] v = new float[width + 1];
+			float[] g = new float[width + 1];
+			System.arraycopy(edges.vRow[r], firstCol, v, 1, width);
+			System.arraycopy(edges.gRow[r], firstCol, g, 1, width);
+
+			// Columns of the tile to the left, and of this tile
+			float[] vLeft = edges.vColumn[c];
+			float[] hLeft = edges.hColumn[c];
+			float[] vRight = edges.vColumn[c + 1];
+			float[] hRight = edges.hColumn[c + 1];
+
+			// v of the cell above and to the left of the tile
+			float corner = firstCol == 1 ? 0 : edges.vRow[r][firstCol - 1];
+
+			float f, h, g1, g2, h1, h2, vDiagonal, similarityScore;
+			int bits;
+
+			for (int i = firstRow, k = firstRow * stride; i <= lastRow; i++, k += stride) {
+				h = firstCol == 1 ? Float.NEGATIVE_INFINITY : hLeft[i];
+				vDiagonal = corner;
+				v[0] = firstCol == 1 ? 0 : vLeft[i];
+				corner = v[0];
+				for (int j = firstCol, x = 1; j <= lastCol; j++, x++) {
+					similarityScore = matrix[a1[i - 1]][a2[j - 1]];
+
+					// Fill the matrices
+					f = vDiagonal + similarityScore;
+
+					bits = 0;
+					g1 = g[x] - e;
+					g2 = v[x] - o;
+					if (g1 > g2) {
+						g[x] = g1;
+						bits |= PackedDirections.VERTICAL;
+					} else {
+						g[x] = g2;
+					}
+
+					h1 = h - e;
+					h2 = v[x - 1] - o;
+					if (h1 > h2) {
+						h = h1;
+						bits |= PackedDirections.HORIZONTAL;
+					} else {
+						h = h2;
+					}
+
+					vDiagonal = v[x];
+					v[x] = SmithWatermanGotoh.maximum(f, g[x], h, 0);
+
+					// Determine the traceback direction
+					if (v[x] == 0) {
+						bits |= Directions.STOP;
+					} else if (v[x] == f) {
+						bits |= Directions.DIAGONAL;
+					} else if (v[x] == g[x]) {
+						bits |= Directions.UP;
+					} else {
+						bits |= Directions.LEFT;
+					}
+					directions[k + PackedDirections.offset(j)] |= bits << PackedDirections
+							.shift(j);
+
+					if (v[x] > score) {
+						row = i;
+						col = j;
+						score = v[x];
+					}
+				}
+				vRight[i] = v[width];
+				hRight[i] = h;
+			}
+
+			System.arraycopy(v, 1, edges.vRow[r + 1], firstCol, width);
+			System.arraycopy(g, 1, edges.gRow[r + 1], firstCol, width);
+		}
+	}
+}
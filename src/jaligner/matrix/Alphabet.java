@@ -0,0 +1,109 @@
+package jaligner.matrix;
+
+/**
+ * Compact residue codes for protein sequences. Codes 0 to 23 follow the
+ * order of the rows of {@link jaligner.BLOSUM62}; every other character
+ * shares the code {@link #UNKNOWN}.
+ */
+
+public abstract class Alphabet {
+	/**
+	 * Residues in code order
+	 */
+	public static final String RESIDUES = "ARNDCQEGHILKMFPSTWYVBZX*";
+
+	/**
+	 * Code of characters that are not in {@link #RESIDUES}
+	 */
+	public static final byte UNKNOWN = (byte) RESIDUES.length();
+
+	/**
+	 * Number of codes, including {@link #UNKNOWN}
+	 */
+	public static final int SIZE = UNKNOWN + 1;
+
+	/**
+	 * Codes of the ASCII characters
+	 */
+	private static final byte[] codes = new byte[128];
+
+	static {
+		java.util.Arrays.fill(codes, UNKNOWN);
+		for (int i = 0; i < RESIDUES.length(); i++) {
+			codes[RESIDUES.charAt(i)] = (byte) i;
+		}
+	}
+
+	/**
+	 * Returns the code of a residue
+	 * 
+	 * @param c
+	 *            residue character
+	 * @return code between 0 and {@link #UNKNOWN}
+	 */
+	public static byte encode(char c) {
+		return c < 128 ? codes[c] : UNKNOWN;
+	}
+
+	/**
+	 * Encodes a sequence of ASCII residues
+	 * 
+	 * @param residues
+	 *            residue characters, one byte each
+	 * @return codes between 0 and {@link #UNKNOWN}
+	 */
+	public static byte[] encode(byte[] residues) {
+		byte[] encoded = new byte[residues.length];
+		for (int i = 0; i < residues.length; i++) {
+			encoded[i] = residues[i] >= 0 ? codes[residues[i]] : UNKNOWN;
+		}
+		return encoded;
+	}
+
+	/**
+	 * Encodes a sequence of residues
+	 * 
+	 * @param residues
+	 *            residue characters
+	 * @return codes between 0 and {@link #UNKNOWN}
+	 */
+	public static byte[] encode(String residues) {
+		byte[] encoded = new byte[residues.length()];
+		for (int i = 0; i < encoded.length; i++) {
+			encoded[i] = encode(residues.charAt(i));
+		}
+		return encoded;
+	}
+
+	/**
+	 * Tells whether a matrix scores only characters of {@link #RESIDUES}, so
+	 * that scoring by code gives the same scores as scoring by character.
+	 * 
+	 * @param matrix
+	 *            scoring matrix
+	 * @return true if every character outside {@link #RESIDUES} scores 0
+	 */
+	public static boolean covers(Matrix matrix) {
+		float[][] raw = matrix.getScores();
+		for (int c1 = 0; c1 < raw.length; c1++) {
+			for (int c2 = 0; c2 < raw[c1].length; c2++) {
+				if (raw[c1][c2] != 0
+						&& (encode((char) c1) == UNKNOWN || encode((char) c2) == UNKNOWN)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the character of a code
+	 * 
+	 * @param code
+	 *            residue code
+	 * @return residue character, or <code>0</code> for {@link #UNKNOWN}
+	 */
+	public static char decode(int code) {
+		return code < UNKNOWN ? RESIDUES.charAt(code) : 0;
+	}
+}
@@ -0,0 +1,74 @@
+package jaligner.matrix;
+
+/**
+ * A scoring matrix indexed by {@link Alphabet} code instead of by character.
+ * The {@link Alphabet#SIZE} x {@link Alphabet#SIZE} scores are stored in one
+ * flat array of about 2.5 KB, as
+ * <code>scores[code1 * Alphabet.SIZE + code2]</code>, instead of the 128 rows
+ * of 128 or more floats of {@link Matrix}.
+ */
+
+public class DenseMatrix {
+	/**
+	 * Source matrix
+	 */
+	private final Matrix matrix;
+
+	/**
+	 * Scores by code
+	 */
+	private final float[] scores;
+
+	private DenseMatrix(Matrix matrix, float[] scores) {
+		this.matrix = matrix;
+		this.scores = scores;
+	}
+
+	/**
+	 * Builds the dense form of a matrix. Use {@link Matrix#getDense()} to share
+	 * one dense form per matrix.
+	 * 
+	 * @param matrix
+	 *            scoring matrix
+	 * @return the dense matrix, or <code>null</code> if the matrix scores a
+	 *         character outside of {@link Alphabet#RESIDUES}
+	 */
+	public static DenseMatrix densify(Matrix matrix) {
+		if (!Alphabet.covers(matrix)) {
+			return null;
+		}
+		float[] scores = new float[Alphabet.SIZE * Alphabet.SIZE];
+		for (int c1 = 0; c1 < Alphabet.UNKNOWN; c1++) {
+			for (int c2 = 0; c2 < Alphabet.UNKNOWN; c2++) {
+				scores[c1 * Alphabet.SIZE + c2] = matrix.getScore(Alphabet
+						.decode(c1), Alphabet.decode(c2));
+			}
+		}
+		return new DenseMatrix(matrix, scores);
+	}
+
+	/**
+	 * @return Returns the source matrix.
+	 */
+	public Matrix getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * @return Returns the scores by code.
+	 */
+	public float[] getScores() {
+		return scores;
+	}
+
+	/**
+	 * @param code1
+	 *            code of the residue of sequence #1
+	 * @param code2
+	 *            code of the residue of sequence #2
+	 * @return score
+	 */
+	public float getScore(int code1, int code2) {
+		return scores[code1 * Alphabet.SIZE + code2];
+	}
+}
@@ -41,6 +41,16 @@ public class Matrix implements Serializable {
      * Scores
      */
     private float[][] scores = null;
+
+    /**
+     * Scores by residue code, built on first use
+     */
+    private transient volatile DenseMatrix dense = null;
+
+    /**
+     * Whether {@link #dense} has been built
+     */
+    private transient volatile boolean densified = false;
     
     public Matrix(String id, float[][] scores) {
         this.id = id;
@@ -71,4 +81,19 @@ public class Matrix implements Serializable {
         float f = this.scores[a][b];
         return f;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the scores by residue code, see {@link DenseMatrix#densify(Matrix)}.
+     * The dense matrix is built once and shared.
+     * 
+     * @return the dense matrix, or <code>null</code> if this matrix scores
+     *         characters outside of {@link Alphabet#RESIDUES}
+     */
+    public DenseMatrix getDense() {
+        if (!densified) {
+            dense = DenseMatrix.densify(this);
+            densified = true;
+        }
+        return dense;
+    }
+}
@@ -0,0 +1,188 @@
+package jaligner.matrix;
+
+/**
+ * A scoring matrix and gap penalties multiplied by a common power of two so
+ * that every value is an integer. Scores of an integer alignment divided by
+ * {@link #getScale()} are exactly the scores of the <code>float</code>
+ * alignment, as long as they stay below 2^24.
+ * <p>
+ * Scores are stored densely by {@link Alphabet} code, as
+ * <code>scores[code1 * Alphabet.SIZE + code2]</code>.
+ */
+
+public class ScaledMatrix {
+	/**
+	 * Largest scale tried by {@link #quantize(Matrix, float, float)}
+	 */
+	private static final int MAXIMUM_SCALE = 256;
+
+	/**
+	 * Source matrix
+	 */
+	private final Matrix matrix;
+
+	/**
+	 * Multiplier applied to the scores and penalties
+	 */
+	private final int scale;
+
+	/**
+	 * Scaled scores by code
+	 */
+	private final int[] scores;
+
+	/**
+	 * Scaled open gap penalty
+	 */
+	private final int open;
+
+	/**
+	 * Scaled extend gap penalty
+	 */
+	private final int extend;
+
+	/**
+	 * Largest scaled score
+	 */
+	private final int maximum;
+
+	private ScaledMatrix(Matrix matrix, int scale, int[] scores, int open,
+			int extend) {
+		this.matrix = matrix;
+		this.scale = scale;
+		this.scores = scores;
+		this.open = open;
+		this.extend = extend;
+		int maximum = 0;
+		for (int score : scores) {
+			maximum = Math.max(maximum, score);
+		}
+		this.maximum = maximum;
+	}
+
+	/**
+	 * Scales a matrix and gap penalties to integers.
+	 * 
+	 * @param matrix
+	 *            scoring matrix
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @return the scaled matrix, or <code>null</code> if no power of two up to
+	 *         256 makes every value an integer, or if the matrix scores a
+	 *         character outside of {@link Alphabet#RESIDUES}
+	 */
+	public static ScaledMatrix quantize(Matrix matrix, float o, float e) {
+		if (!Alphabet.covers(matrix)) {
+			return null;
+		}
+		if (o < 0 || e < 0) {
+			return null;
+		}
+
+		for (int scale = 1; scale <= MAXIMUM_SCALE; scale *= 2) {
+			int[] scores = new int[Alphabet.SIZE * Alphabet.SIZE];
+			boolean exact = isExact(o, scale) && isExact(e, scale);
+			for (int c1 = 0; exact && c1 < Alphabet.UNKNOWN; c1++) {
+				for (int c2 = 0; exact && c2 < Alphabet.UNKNOWN; c2++) {
+					float score = matrix.getScore(Alphabet.decode(c1),
+							Alphabet.decode(c2));
+					exact = isExact(score, scale);
+					scores[c1 * Alphabet.SIZE + c2] = Math.round(score * scale);
+				}
+			}
+			if (exact) {
+				return new ScaledMatrix(matrix, scale, scores,
+						Math.round(o * scale), Math.round(e * scale));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if value * scale is a small integer
+	 */
+	private static boolean isExact(float value, int scale) {
+		float scaled = value * scale;
+		return scaled == Math.rint(scaled) && Math.abs(scaled) < Short.MAX_VALUE;
+	}
+
+	/**
+	 * @return Returns the source matrix.
+	 */
+	public Matrix getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * @return Returns the scale.
+	 */
+	public int getScale() {
+		return scale;
+	}
+
+	/**
+	 * @return Returns the scaled scores by code.
+	 */
+	public int[] getScores() {
+		return scores;
+	}
+
+	/**
+	 * @param code1
+	 *            code of residue #1
+	 * @param code2
+	 *            code of residue #2
+	 * @return the scaled score
+	 */
+	public int getScore(int code1, int code2) {
+		return scores[code1 * Alphabet.SIZE + code2];
+	}
+
+	/**
+	 * @return Returns the scaled open gap penalty.
+	 */
+	public int getOpen() {
+		return open;
+	}
+
+	/**
+	 * @return Returns the scaled extend gap penalty.
+	 */
+	public int getExtend() {
+		return extend;
+	}
+
+	/**
+	 * @return Returns the largest scaled score.
+	 */
+	public int getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * Converts a score cutoff to this scale: a score reaches
+	 * <code>cutoff</code> exactly when its scaled score reaches the returned
+	 * value.
+	 * 
+	 * @param cutoff
+	 *            cutoff in the scale of the source matrix
+	 * @return scaled cutoff
+	 */
+	public int scaleCutoff(float cutoff) {
+		double scaled = Math.ceil((double) cutoff * scale);
+		return scaled > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) scaled;
+	}
+
+	/**
+	 * Converts a scaled score back to the scale of the source matrix.
+	 * 
+	 * @param score
+	 *            scaled score
+	 * @return unscaled score
+	 */
+	public float unscale(int score) {
+		return score / (float) scale;
+	}
+}
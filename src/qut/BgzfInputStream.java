@@ -0,0 +1,181 @@
+package qut;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/*The content of a BGZF file, the blocked gzip of samtools and htslib. Every block is a gzip
+  member of at most 64 KB of data whose header holds the size of the block, so the blocks are
+  read one after the other without inflating them and are inflated AHEAD blocks at a time on a
+  pool of one thread per processor, while the reader consumes the blocks before them. Each block
+  is checked against its CRC32 and length*/
+
+public class BgzfInputStream extends InputStream
+{
+    private static final int HEADER = 12;
+    private static final int TRAILER = 8;
+    /*Blocks inflated ahead of the reader*/
+    private static final int AHEAD = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService inflaters = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable ->
+    {
+        Thread thread = new Thread(runnable, "bgzf-inflater");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final DataInputStream input;
+    private final ArrayDeque<Future<byte[]>> blocks = new ArrayDeque<Future<byte[]>>();
+    private boolean end;
+    private byte[] block = new byte[0];
+    private int position;
+
+    public BgzfInputStream(InputStream input)
+    {
+        this.input = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+    }
+
+    /*Whether header, the first bytes of a file, starts a BGZF block*/
+    public static boolean IsBgzf(byte[] header, int length)
+    {
+        if (length < 18 || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8 || (header[3] & 4) == 0)
+            return false;
+        int extra = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+        return extra >= 6 && header[12] == 'B' && header[13] == 'C' && header[14] == 2 && header[15] == 0;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (!Fill())
+            return -1;
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException
+    {
+        if (length == 0)
+            return 0;
+        if (!Fill())
+            return -1;
+        int count = Math.min(length, block.length - position);
+        System.arraycopy(block, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        for (Future<byte[]> pending : blocks)
+            pending.cancel(false);
+        blocks.clear();
+        input.close();
+    }
+
+    /*Makes sure the current block has data left; false at the end of the file*/
+    private boolean Fill() throws IOException
+    {
+        while (position == block.length)
+        {
+            while (!end && blocks.size() < AHEAD)
+            {
+                byte[] compressed = ReadBlock();
+                if (compressed == null)
+                    end = true;
+                else
+                    blocks.add(inflaters.submit(() -> Inflate(compressed)));
+            }
+            Future<byte[]> next = blocks.poll();
+            if (next == null)
+                return false;
+            try
+            {
+                block = next.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            catch (ExecutionException e)
+            {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    /*The deflated data and trailer of the next block, or null at the end of the file*/
+    private byte[] ReadBlock() throws IOException
+    {
+        byte[] header = new byte[HEADER];
+        int read = input.read(header);
+        if (read < 0)
+            return null;
+        if (read < HEADER)
+            input.readFully(header, read, HEADER - read);
+        if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8 || (header[3] & 4) == 0)
+            throw new ZipException("Not a BGZF block");
+        byte[] extra = new byte[(header[10] & 0xff) | (header[11] & 0xff) << 8];
+        input.readFully(extra);
+        int size = -1;
+        for (int i = 0; i + 4 <= extra.length; )
+        {
+            int length = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && length == 2 && i + 6 <= extra.length)
+                size = ((extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8) + 1;
+            i += 4 + length;
+        }
+        int rest = size - HEADER - extra.length;
+        if (size < 0 || rest < TRAILER)
+            throw new ZipException("BGZF block without its size");
+        byte[] compressed = new byte[rest];
+        input.readFully(compressed);
+        return compressed;
+    }
+
+    /*Inflates the data of a block and checks it against the CRC32 and length of the trailer*/
+    private static byte[] Inflate(byte[] compressed) throws IOException
+    {
+        int trailer = compressed.length - TRAILER;
+        int crc = Int(compressed, trailer);
+        int length = Int(compressed, trailer + 4);
+        if (length < 0 || length > 1 << 16)
+            throw new ZipException("BGZF block of " + length + " bytes");
+        byte[] data = new byte[length];
+        Inflater inflater = BgzfInputStream.inflater.get();
+        inflater.reset();
+        inflater.setInput(compressed, 0, trailer);
+        try
+        {
+            int inflated = 0;
+            while (inflated < length && !inflater.finished())
+            {
+                int count = inflater.inflate(data, inflated, length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                inflated += count;
+            }
+            if (inflated != length)
+                throw new ZipException("BGZF block shorter than its length");
+        }
+        catch (DataFormatException e)
+        {
+            throw new ZipException(e.getMessage());
+        }
+        CRC32 check = new CRC32();
+        check.update(data, 0, length);
+        if ((int) check.getValue() != crc)
+            throw new ZipException("BGZF block fails its CRC32");
+        return data;
+    }
+
+    private static int Int(byte[] bytes, int offset)
+    {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,113 @@
+package qut;
+
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/*The consensus each GenBank file adds to a run, kept in a directory so that a rerun merges it
+  instead of processing the file again. A checkpoint is named by the SHA-256 of the content of
+  the file and of the parameters of the run (references, homology settings, promoter pattern),
+  so an edited file, or the same file under other settings, is processed again, while a renamed
+  or moved one is not. Checkpoints are JSON maps from reference name to Sigma70Consensus, the
+  format of consensus.json, and are written to a temporary file first, so a run stopped at any
+  point leaves only whole checkpoints behind*/
+
+public class Checkpoints
+{
+    private static final Type CONSENSUS = new TypeToken<HashMap<String, Sigma70Consensus>>() {}.getType();
+
+    private final Path dir;
+    private final byte[] parameters;
+    private final Gson gson = new Gson();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder stored = new LongAdder();
+
+    public Checkpoints(String dir, String parameters) throws IOException
+    {
+        this.dir = Files.createDirectories(Paths.get(dir));
+        this.parameters = parameters.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*The key of the checkpoint of file*/
+    public String Key(String file) throws IOException
+    {
+        MessageDigest digest = Digest();
+        digest.update(parameters);
+        return Hash(file, digest);
+    }
+
+    /*The consensus kept under key, or null if there is none or it cannot be read*/
+    public Map<String, Sigma70Consensus> Load(String key)
+    {
+        Path path = dir.resolve(key + ".json");
+        if (!Files.exists(path))
+            return null;
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8))
+        {
+            Map<String, Sigma70Consensus> consensus = gson.fromJson(reader, CONSENSUS);
+            if (consensus != null)
+                merged.increment();
+            return consensus;
+        }
+        catch (IOException | JsonParseException e)
+        {
+            System.err.println("Checkpoint " + path + " ignored: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void Store(String key, Map<String, Sigma70Consensus> consensus) throws IOException
+    {
+        Path temporary = Files.createTempFile(dir, key, ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8))
+        {
+            gson.toJson(consensus, CONSENSUS, writer);
+        }
+        Files.move(temporary, dir.resolve(key + ".json"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        stored.increment();
+    }
+
+    public String Report()
+    {
+        return String.format("Checkpoints: %d files merged, %d stored", merged.sum(), stored.sum());
+    }
+
+    /*The SHA-256 of the content of file, in hex*/
+    public static String Hash(String file) throws IOException
+    {
+        return Hash(file, Digest());
+    }
+
+    private static String Hash(String file, MessageDigest digest) throws IOException
+    {
+        try (InputStream input = new DigestInputStream(new FileInputStream(file), digest))
+        {
+            byte[] buffer = new byte[1 << 16];
+            while (input.read(buffer) >= 0)
+                ;
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    private static MessageDigest Digest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
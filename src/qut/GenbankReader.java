@@ -0,0 +1,163 @@
+package qut;
+
+import java.io.*;
+import java.nio.*;
+
+/*Lines of a GenBank file read straight from its bytes, for Gene.ParseGenes and
+  GenbankRecord.Parse. GenbankRecords maps the bytes of each record from the file and a line is
+  only a range of the buffer, so no String is made for a line; the parsers compare and copy the
+  bytes they need. Lines end as for BufferedReader.readLine, and the text is taken to be ASCII,
+  as GenBank files are*/
+
+public class GenbankReader
+{
+    private final ByteBuffer buffer;
+    /*Moved over the buffer for bulk copies*/
+    private final ByteBuffer view;
+    private int position;
+    /*The current line, from start up to end*/
+    int start;
+    int end;
+
+    public GenbankReader(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        this.view = buffer.duplicate();
+        this.position = buffer.position();
+    }
+
+    /*Moves to the next line; false at the end of the buffer*/
+    public boolean NextLine()
+    {
+        int limit = buffer.limit();
+        if (position >= limit)
+            return false;
+        start = position;
+        while (position < limit)
+        {
+            byte b = buffer.get(position);
+            if (b == '\n' || b == '\r')
+                break;
+            position++;
+        }
+        end = position;
+        if (position < limit && buffer.get(position++) == '\r' && position < limit && buffer.get(position) == '\n')
+            position++;
+        return true;
+    }
+
+    /*Where the next line starts, to come back to with Reset*/
+    int Mark()
+    {
+        return position;
+    }
+
+    void Reset(int mark)
+    {
+        position = mark;
+    }
+
+    /*Moves to the next line, which must be there*/
+    void RequireLine() throws IOException
+    {
+        if (!NextLine())
+            throw new EOFException("GenBank record ends early");
+    }
+
+    byte Get(int index)
+    {
+        return buffer.get(index);
+    }
+
+    /*The first index of [from, to) that is not white space, as String.trim sees it*/
+    int TrimStart(int from, int to)
+    {
+        while (from < to && (buffer.get(from) & 0xff) <= ' ')
+            from++;
+        return from;
+    }
+
+    /*The end of [from, to) without its trailing white space*/
+    int TrimEnd(int from, int to)
+    {
+        while (to > from && (buffer.get(to - 1) & 0xff) <= ' ')
+            to--;
+        return to;
+    }
+
+    /*Whether the first 20 columns of the line, trimmed, are label*/
+    boolean LabelIs(String label)
+    {
+        int to = Math.min(end, start + 20);
+        int from = TrimStart(start, to);
+        return Equals(from, TrimEnd(from, to), label);
+    }
+
+    boolean Equals(int from, int to, String text)
+    {
+        return to - from == text.length() && StartsWith(from, to, text);
+    }
+
+    boolean StartsWith(int from, int to, String prefix)
+    {
+        if (to - from < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++)
+            if (buffer.get(from + i) != prefix.charAt(i))
+                return false;
+        return true;
+    }
+
+    int IndexOf(int from, int to, char c)
+    {
+        for (int i = from; i < to; i++)
+            if (buffer.get(i) == c)
+                return i;
+        return -1;
+    }
+
+    String String(int from, int to)
+    {
+        if (to < from)
+            throw new StringIndexOutOfBoundsException(to - from);
+        byte[] bytes = new byte[to - from];
+        Copy(from, to, bytes, 0);
+        return new String(bytes, java.nio.charset.StandardCharsets.ISO_8859_1);
+    }
+
+    void Copy(int from, int to, byte[] destination, int offset)
+    {
+        view.limit(to).position(from);
+        view.get(destination, offset, to - from);
+    }
+
+    /*Integer.parseInt of [from, to)*/
+    int ParseInt(int from, int to)
+    {
+        if (from >= to)
+            throw new NumberFormatException("For input string: \"\"");
+        boolean negative = false;
+        int i = from;
+        byte first = buffer.get(i);
+        if (first == '-' || first == '+')
+        {
+            negative = first == '-';
+            if (++i == to)
+                throw new NumberFormatException("For input string: \"" + String(from, to) + "\"");
+        }
+        long value = 0;
+        for (; i < to; i++)
+        {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("For input string: \"" + String(from, to) + "\"");
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1)
+                throw new NumberFormatException("For input string: \"" + String(from, to) + "\"");
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE)
+            throw new NumberFormatException("For input string: \"" + String(from, to) + "\"");
+        return (int) value;
+    }
+}
@@ -29,4 +29,45 @@ public class GenbankRecord
 
         return true;
     }
+
+    /*Parse over the bytes of a mapped file. The sequence is measured first, so its bytes are
+      copied once, straight from the file into nucleotides*/
+    public boolean Parse(GenbankReader reader) throws IOException
+    {
+        genes = Gene.ParseGenes(reader);
+        if (genes == null || genes.size() == 0) // EOF
+            return false;
+
+        int mark = reader.Mark();
+        int length = 0;
+        while (true)
+        {
+            reader.RequireLine();
+            if (reader.StartsWith(reader.start, reader.end, "//"))
+                break;
+            int line = reader.end - reader.start;
+            for (int i = 10; i < line; i += 11)
+                length += Math.min(i + 10, line) - i;
+        }
+
+        reader.Reset(mark);
+        byte[] bytes = new byte[length];
+        length = 0;
+        while (true)
+        {
+            reader.RequireLine();
+            if (reader.StartsWith(reader.start, reader.end, "//"))
+                break;
+            int line = reader.end - reader.start;
+            for (int i = 10; i < line; i += 11)
+            {
+                int to = Math.min(i + 10, line);
+                reader.Copy(reader.start + i, reader.start + to, bytes, length);
+                length += to - i;
+            }
+        }
+        nucleotides = new NucleotideSequence(bytes);
+
+        return true;
+    }
 }
@@ -0,0 +1,460 @@
+package qut;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.stream.*;
+import java.util.zip.GZIPInputStream;
+
+/*The records of a GenBank flat file, which may hold many of them, each ending with a "//" line.
+  The spliterator covers a range of the file that starts at a record; a record is mapped and
+  parsed only when it is reached, so a large dump streams through without being loaded whole.
+  A split cuts the range at the first record boundary past its middle, so records are handed to
+  as many parsers as the stream has threads. Records without genes are skipped.
+  Parallel reads the records in order instead, and parses the next AHEAD of them on the parser
+  threads while the caller works on the current one, so a dump is parsed in parallel and still
+  never held in memory beyond those records*/
+
+public class GenbankRecords implements Spliterator<GenbankRecord>
+{
+    /*Ranges smaller than this are not split*/
+    private static final long MIN_SPLIT = 1 << 20;
+    private static final int CHUNK = 1 << 16;
+    private static final int AHEAD = 2 * Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService parsers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable ->
+    {
+        Thread thread = new Thread(runnable, "genbank-parser");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FileChannel channel;
+    private long from;
+    private final long to;
+
+    private GenbankRecords(FileChannel channel, long from, long to)
+    {
+        this.channel = channel;
+        this.from = from;
+        this.to = to;
+    }
+
+    /*The records of file, in order; the stream holds the file open until it is closed. A gzip
+      file, BGZF or not, is read through its decompression*/
+    public static Stream<GenbankRecord> Stream(String file) throws IOException
+    {
+        InputStream inflated = Decompress(file);
+        if (inflated != null)
+            return StreamSupport.stream(new Inflated(inflated), false).onClose(() -> Close(inflated));
+        FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        return StreamSupport.stream(new GenbankRecords(channel, 0, channel.size()), false).onClose(() -> Close(channel));
+    }
+
+    /*The content of file if it is gzip, inflated BGZF block by block in parallel, or null if it
+      is not compressed*/
+    static InputStream Decompress(String file) throws IOException
+    {
+        byte[] header = new byte[18];
+        int length;
+        try (InputStream input = new FileInputStream(file))
+        {
+            length = input.readNBytes(header, 0, header.length);
+        }
+        if (length < 2 || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b)
+            return null;
+        if (BgzfInputStream.IsBgzf(header, length))
+            return new BgzfInputStream(new FileInputStream(file));
+        return new GZIPInputStream(new FileInputStream(file), 1 << 16);
+    }
+
+    private static void Close(Closeable closeable)
+    {
+        try
+        {
+            closeable.close();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*The records of file, in order, parsed ahead of the caller on the parser threads; the stream
+      holds the file open until it is closed*/
+    public static Stream<GenbankRecord> Parallel(String file) throws IOException
+    {
+        InputStream inflated = Decompress(file);
+        if (inflated != null)
+            return StreamSupport.stream(new Ahead(new Inflated(inflated)::Next), false).onClose(() -> Close(inflated));
+        FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        return StreamSupport.stream(new Ahead(new GenbankRecords(channel, 0, channel.size())::Next), false).onClose(() -> Close(channel));
+    }
+
+    /*The record in buffer, or null if it has no genes*/
+    private static GenbankRecord Parse(ByteBuffer buffer) throws IOException
+    {
+        GenbankRecord record = new GenbankRecord();
+        return record.Parse(new GenbankReader(buffer)) ? record : null;
+    }
+
+    public boolean tryAdvance(Consumer<? super GenbankRecord> action)
+    {
+        try
+        {
+            for (ByteBuffer buffer = Next(); buffer != null; buffer = Next())
+            {
+                GenbankRecord record = Parse(buffer);
+                if (record != null)
+                {
+                    action.accept(record);
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*The bytes of the next record of the range, mapped, or null at its end*/
+    private ByteBuffer Next() throws IOException
+    {
+        if (from >= to)
+            return null;
+        long end = Math.min(Boundary(from, true), to);
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, end - from);
+        from = end;
+        return buffer;
+    }
+
+    public Spliterator<GenbankRecord> trySplit()
+    {
+        if (to - from < MIN_SPLIT)
+            return null;
+        try
+        {
+            long middle = Boundary(from + (to - from) / 2, false);
+            if (middle >= to)
+                return null;
+            GenbankRecords prefix = new GenbankRecords(channel, from, middle);
+            from = middle;
+            return prefix;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*Bytes left, for the stream to balance its splits*/
+    public long estimateSize()
+    {
+        return to - from;
+    }
+
+    public int characteristics()
+    {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    /*The offset just past the first "//" line at or after offset, or the size of the file if there
+      is none; lineStart tells whether offset starts a line*/
+    private long Boundary(long offset, boolean lineStart) throws IOException
+    {
+        long size = channel.size();
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+        // 0 looking at the start of a line, 1 after one '/', 2 in a "//" line, 3 elsewhere in a line
+        int state = lineStart ? 0 : 3;
+        boolean carriageReturn = false;
+        for (long position = offset; position < size; )
+        {
+            chunk.clear();
+            int read = channel.read(chunk, position);
+            if (read <= 0)
+                break;
+            for (int i = 0; i < read; i++)
+            {
+                byte b = chunk.get(i);
+                if (carriageReturn)
+                {
+                    carriageReturn = false;
+                    if (b == '\n')
+                        continue;
+                }
+                if (b == '\n' || b == '\r')
+                {
+                    if (state == 2)
+                        return position + i + (b == '\r' ? CarriageReturnEnd(position + i + 1, size) : 1);
+                    carriageReturn = b == '\r';
+                    state = 0;
+                }
+                else if (state < 2)
+                    state = b == '/' ? state + 1 : 3;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /*The length of a line end that starts with '\r' before offset: 2 if '\n' follows it*/
+    private int CarriageReturnEnd(long offset, long size) throws IOException
+    {
+        if (offset >= size)
+            return 1;
+        ByteBuffer next = ByteBuffer.allocate(1);
+        channel.read(next, offset);
+        return next.get(0) == '\n' ? 2 : 1;
+    }
+
+    /*The records of a decompressed stream, which cannot be mapped or split by offset: the bytes
+      of each record are gathered up to its "//" line and copied out, and a split hands one
+      record over to be parsed by another thread while this one reads on*/
+    private static class Inflated implements Spliterator<GenbankRecord>
+    {
+        private final InputStream input;
+        private byte[] bytes = new byte[CHUNK];
+        /*The record being gathered starts at start, bytes up to filled have been read and those
+          up to scanned have been looked at, in the state of Boundary*/
+        private int start;
+        private int filled;
+        private int scanned;
+        private int state;
+        private boolean end;
+
+        Inflated(InputStream input)
+        {
+            this.input = input;
+        }
+
+        public boolean tryAdvance(Consumer<? super GenbankRecord> action)
+        {
+            try
+            {
+                for (ByteBuffer buffer = Next(); buffer != null; buffer = Next())
+                {
+                    GenbankRecord record = Parse(buffer);
+                    if (record != null)
+                    {
+                        action.accept(record);
+                        return true;
+                    }
+                }
+                return false;
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public Spliterator<GenbankRecord> trySplit()
+        {
+            try
+            {
+                ByteBuffer buffer = Next();
+                if (buffer == null)
+                    return null;
+                return new Spliterator<GenbankRecord>()
+                {
+                    private boolean parsed;
+
+                    public boolean tryAdvance(Consumer<? super GenbankRecord> action)
+                    {
+                        if (parsed)
+                            return false;
+                        parsed = true;
+                        try
+                        {
+                            GenbankRecord record = Parse(buffer);
+                            if (record == null)
+                                return false;
+                            action.accept(record);
+                            return true;
+                        }
+                        catch (IOException e)
+                        {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+
+                    public Spliterator<GenbankRecord> trySplit()
+                    {
+                        return null;
+                    }
+
+                    public long estimateSize()
+                    {
+                        return parsed ? 0 : 1;
+                    }
+
+                    public int characteristics()
+                    {
+                        return ORDERED | NONNULL | IMMUTABLE;
+                    }
+                };
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public long estimateSize()
+        {
+            return Long.MAX_VALUE;
+        }
+
+        public int characteristics()
+        {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+
+        /*The bytes of the next record, or null at the end of the stream*/
+        private ByteBuffer Next() throws IOException
+        {
+            while (true)
+            {
+                int boundary = Scan();
+                if (boundary >= 0 || (end && start < filled))
+                {
+                    int to = boundary >= 0 ? boundary : filled;
+                    ByteBuffer record = ByteBuffer.wrap(Arrays.copyOfRange(bytes, start, to));
+                    start = scanned = to;
+                    state = 0;
+                    return record;
+                }
+                if (end)
+                    return null;
+                Read();
+            }
+        }
+
+        /*The end of the "//" line of the record being gathered, or -1 if it has not been read yet*/
+        private int Scan()
+        {
+            for (; scanned < filled; scanned++)
+            {
+                byte b = bytes[scanned];
+                if (b == '\n' || b == '\r')
+                {
+                    if (state == 2)
+                    {
+                        if (b == '\n')
+                            return scanned + 1;
+                        if (scanned + 1 == filled && !end)
+                            return -1;
+                        return scanned + 1 < filled && bytes[scanned + 1] == '\n' ? scanned + 2 : scanned + 1;
+                    }
+                    state = 0;
+                }
+                else if (state < 2)
+                    state = b == '/' ? state + 1 : 3;
+            }
+            return -1;
+        }
+
+        /*Reads on, moving the record being gathered to the front of the buffer or growing it*/
+        private void Read() throws IOException
+        {
+            if (start > 0)
+            {
+                System.arraycopy(bytes, start, bytes, 0, filled - start);
+                filled -= start;
+                scanned -= start;
+                start = 0;
+            }
+            if (filled == bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            int read = input.read(bytes, filled, bytes.length - filled);
+            if (read < 0)
+                end = true;
+            else
+                filled += read;
+        }
+    }
+
+    /*Where Ahead takes the bytes of each record from: the next one, or null at the end*/
+    private interface Source
+    {
+        ByteBuffer Next() throws IOException;
+    }
+
+    /*The records of a source in order, each parsed on the parser threads as soon as it is read,
+      up to AHEAD records before the one handed over*/
+    private static class Ahead implements Spliterator<GenbankRecord>
+    {
+        private final Source source;
+        private final ArrayDeque<Future<GenbankRecord>> parsing = new ArrayDeque<Future<GenbankRecord>>();
+        private boolean end;
+
+        Ahead(Source source)
+        {
+            this.source = source;
+        }
+
+        public boolean tryAdvance(Consumer<? super GenbankRecord> action)
+        {
+            try
+            {
+                while (true)
+                {
+                    while (!end && parsing.size() < AHEAD)
+                    {
+                        ByteBuffer buffer = source.Next();
+                        if (buffer == null)
+                            end = true;
+                        else
+                            parsing.add(parsers.submit(() -> Parse(buffer)));
+                    }
+                    Future<GenbankRecord> next = parsing.poll();
+                    if (next == null)
+                        return false;
+                    GenbankRecord record = next.get();
+                    if (record != null)
+                    {
+                        action.accept(record);
+                        return true;
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException());
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof IOException)
+                    throw new UncheckedIOException((IOException) e.getCause());
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        public Spliterator<GenbankRecord> trySplit()
+        {
+            return null;
+        }
+
+        public long estimateSize()
+        {
+            return Long.MAX_VALUE;
+        }
+
+        public int characteristics()
+        {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+}
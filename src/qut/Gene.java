@@ -22,6 +22,14 @@ public class Gene
         this.sequence = new PeptideSequence(sequence);
     }
 
+    public Gene(String name, int strand, int location, PeptideSequence sequence)
+    {
+        this.name = name;
+        this.strand = strand;
+        this.location = location;
+        this.sequence = sequence;
+    }
+
     public static List<Gene> ParseGenes(BufferedReader reader) throws IOException
     {
         List<Gene> genes = new ArrayList<Gene>();   
@@ -121,10 +129,134 @@ public class Gene
                         break;
                 }
                 if (GeneID != null && location > 0 && translation != null)
-                    genes.add(new Gene(GeneID + "(" + GeneName + ")", strand, location, translation));
+                    genes.add(new Gene(GeneID + "(" + GeneName + ")", strand, location, PeptideSequence.Intern(translation)));
             }
             if ("ORIGIN".equals(label))
                 return genes;
         }
     }
+
+    /*ParseGenes over the bytes of a mapped file; gives the same genes*/
+    public static List<Gene> ParseGenes(GenbankReader reader) throws IOException
+    {
+        List<Gene> genes = new ArrayList<Gene>();
+        byte[] translation = new byte[1024];
+
+        // loop through all features(genes) until we come to ORIGIN marking start of DNA
+        while (true)
+        {
+            if (!reader.NextLine())
+                return null;
+
+            boolean origin = reader.LabelIs("ORIGIN");
+            if (reader.LabelIs("CDS"))
+            {
+                int strand = 1;
+                String GeneName = null, GeneID = null;
+                int translationLength = -1;
+
+                int from = reader.start + 21, to = reader.end;
+                if (from > to)
+                    throw new IOException("Malformed CDS line");
+                if (reader.StartsWith(from, to, "complement("))
+                {
+                    from += 11;
+                    to -= 1;
+                    strand = -1;
+                }
+                int location = Location(reader, from, to);
+
+                // loop through attributes of CDS (/db_xref, /translation, etc)
+                while (true)
+                {
+                    reader.RequireLine();
+                    if (!reader.LabelIs(""))
+                    {
+                        // we've come to the end of the CDS
+                        origin = reader.LabelIs("ORIGIN");
+                        break;
+                    }
+                    from = reader.TrimStart(reader.start, reader.end);
+                    to = reader.TrimEnd(from, reader.end);
+                    if (reader.StartsWith(from, to, "/gene=\""))
+                        GeneName = reader.String(from + 7, to - 1);
+                    else if (reader.StartsWith(from, to, "/db_xref=\"GeneID:"))
+                        GeneID = reader.String(from + 10, to - 1);
+                    else if (reader.StartsWith(from, to, "/translation="))
+                    {
+                        boolean end = reader.Get(to - 1) == '"';
+                        int stop = end ? to - 1 : to;
+                        translation = Append(reader, from + 14, stop, translation, 0);
+                        translationLength = stop - from - 14;
+                        while (!end)
+                        {
+                            reader.RequireLine();
+                            from = reader.TrimStart(reader.start, reader.end);
+                            to = reader.TrimEnd(from, reader.end);
+                            end = to > from && reader.Get(to - 1) == '"';
+                            stop = end ? to - 1 : to;
+                            translation = Append(reader, from, stop, translation, translationLength);
+                            translationLength += stop - from;
+                        }
+                    }
+                }
+                if (GeneID != null && location > 0 && translationLength >= 0)
+                    genes.add(new Gene(GeneID + "(" + GeneName + ")", strand, location, PeptideSequence.Intern(new String(translation, 0, translationLength, java.nio.charset.StandardCharsets.ISO_8859_1))));
+            }
+            if (origin)
+                return genes;
+        }
+    }
+
+    /*The start of a CDS location, -1 if it is partial or has none, the first start of a join*/
+    private static int Location(GenbankReader reader, int from, int to)
+    {
+        if (reader.StartsWith(from, to, "join("))
+        {
+            from += 5;
+            to -= 1;
+            // String.split(","): no comma gives the whole location, trailing empty parts are dropped
+            List<int[]> parts = new ArrayList<int[]>();
+            int part = from;
+            for (int i = from; i <= to; i++)
+                if (i == to || reader.Get(i) == ',')
+                {
+                    parts.add(new int[] {part, i});
+                    part = i + 1;
+                }
+            if (parts.size() > 1)
+                while (!parts.isEmpty() && parts.get(parts.size() - 1)[0] == parts.get(parts.size() - 1)[1])
+                    parts.remove(parts.size() - 1);
+            if (parts.isEmpty())
+                throw new IndexOutOfBoundsException("Empty join");
+            int location = Integer.MAX_VALUE;
+            for (int[] range : parts)
+            {
+                if (reader.StartsWith(range[0], range[1], "<"))
+                {
+                    location = -1;
+                    break;
+                }
+                int separator = reader.IndexOf(range[0], range[1], '.');
+                location = Math.min(location, separator <= range[0] ? -1 : reader.ParseInt(range[0], separator));
+            }
+            return location;
+        }
+        else if (reader.StartsWith(from, to, "<"))
+            return -1;
+        int separator = reader.IndexOf(from, to, '.');
+        if (separator < 0)
+            throw new NumberFormatException("No range in CDS location");
+        return reader.ParseInt(from, separator);
+    }
+
+    private static byte[] Append(GenbankReader reader, int from, int to, byte[] bytes, int length)
+    {
+        if (to < from)
+            throw new StringIndexOutOfBoundsException(to - from);
+        if (length + to - from > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + to - from));
+        reader.Copy(from, to, bytes, length);
+        return bytes;
+    }
 }
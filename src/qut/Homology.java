@@ -0,0 +1,399 @@
+package qut;
+
+import jaligner.*;
+import jaligner.matrix.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/*Homology test shared by the sequential and parallel versions. Each worker thread
+  keeps its own AlignmentWorkspace, so repeated alignments reuse the same buffers.
+  The alignment itself is done by a HomologyEngine, chosen with
+  -Dhomology.kernel=reference|float|integer|striped|banded|batch|auto (default auto).
+  With auto, Tune benchmarks the engines once the reference genes are loaded and then
+  picks the fastest one for each range of gene lengths (HomologyAutotuner), once per JVM and
+  set of references; until then the batch engine is used. All engines return the same score. Before aligning against a
+  compiled reference, a composition upper bound (jaligner.ScoreBound) rejects pairs that
+  can never reach the cutoff; -Dhomology.prefilter=false turns it off. All of this gives
+  the same decisions.
+  -Dhomology.mode=approximate trades some recall for speed on compiled references: a pair
+  is first scored by ungapped X-drop extensions of shared words (jaligner.UngappedExtension,
+  -Dhomology.xdrop), which never score above the exact alignment. A pair whose ungapped score
+  reaches the cutoff is homologous, one below -Dhomology.floor is rejected, and only the
+  borderline pairs in between are aligned by the engine. One pair in -Dhomology.sample is
+  also aligned exactly, to measure the precision and recall of the mode (ApproximateReport);
+  0 or less samples none.
+  -Dhomology.cache=<file> keeps the exact scores in a persistent ScoreCache: a pair found
+  there is not aligned again, in this run or later ones. The prefilter still runs first; a
+  pair that passes it and is missing from the cache is scored in full, without the
+  approximate mode, so that its score can be stored*/
+
+public class Homology
+{
+    static final Matrix BLOSUM_62 = BLOSUM62.Load();
+    static final float OPEN = 10f;
+    static final float EXTEND = 0.5f;
+    /*Score from which a gene is homologous to a reference*/
+    public static final float CUTOFF = 60f;
+    /*Integer version of BLOSUM62 and the gap penalties, null if they cannot be scaled exactly*/
+    static final ScaledMatrix SCALED_BLOSUM_62 = ScaledMatrix.quantize(BLOSUM_62, OPEN, EXTEND);
+    private static final String KERNEL = SCALED_BLOSUM_62 == null ? "float" : System.getProperty("homology.kernel", "auto");
+    private static final boolean PREFILTER = Boolean.parseBoolean(System.getProperty("homology.prefilter", "true"));
+    private static final boolean APPROXIMATE = SCALED_BLOSUM_62 != null && System.getProperty("homology.mode", "exact").equals("approximate");
+    private static final float X_DROP = Float.parseFloat(System.getProperty("homology.xdrop", "20"));
+    private static final float FLOOR = Float.parseFloat(System.getProperty("homology.floor", "30"));
+    private static final int SAMPLE = Integer.parseInt(System.getProperty("homology.sample", "100"));
+    /*Pairs tested against a compiled reference, and pairs rejected by the prefilter*/
+    private static final LongAdder pairs = new LongAdder();
+    private static final LongAdder pruned = new LongAdder();
+    /*Homology tests answered by an earlier test of the same peptide*/
+    private static final LongAdder reused = new LongAdder();
+    /*Pairs scored by ungapped extension, borderline ones among them, and the sampled pairs
+      by approximate and exact decision*/
+    private static final LongAdder approximated = new LongAdder();
+    private static final LongAdder borderline = new LongAdder();
+    private static final LongAdder truePositives = new LongAdder();
+    private static final LongAdder falsePositives = new LongAdder();
+    private static final LongAdder falseNegatives = new LongAdder();
+    private static final LongAdder trueNegatives = new LongAdder();
+    /*Number of genes aligned together by the batch kernel*/
+    public static final int BATCH = BatchSmithWatermanGotoh.LANES;
+    private static final ThreadLocal<AlignmentWorkspace> workspace = ThreadLocal.withInitial(AlignmentWorkspace::new);
+    /*Scores kept between runs, null unless -Dhomology.cache names a file*/
+    private static final ScoreCache cache = OpenCache(System.getProperty("homology.cache"));
+    private static volatile HomologyEngine engine = HomologyEngines.Named(KERNEL.equals("auto") ? HomologyEngines.BATCH.getName() : KERNEL);
+    /*Engines picked by Tune, by the content of the reference peptides they were timed on*/
+    private static final Map<List<String>, HomologyEngine> tuned = new HashMap<List<String>, HomologyEngine>();
+
+    private static ScoreCache OpenCache(String path)
+    {
+        if (path == null)
+            return null;
+        String slots = System.getProperty("homology.cache.slots", String.valueOf(ScoreCache.SLOTS));
+        try
+        {
+            return new ScoreCache(Paths.get(path), Integer.parseInt(slots), BLOSUM_62, OPEN, EXTEND);
+        }
+        catch (NumberFormatException e)
+        {
+            System.err.println("Score cache disabled: -Dhomology.cache.slots=" + slots + " is not a number");
+            return null;
+        }
+        catch (IOException e)
+        {
+            System.err.println("Score cache disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /*Compiles a reference peptide once, so every alignment against it reuses the same profile*/
+    public static void CompileProfile(PeptideSequence reference)
+    {
+        if (SCALED_BLOSUM_62 != null)
+            reference.profile = new QueryProfile(reference.toSequence(), SCALED_BLOSUM_62);
+    }
+
+    /*Picks the engine for each range of gene lengths, when the kernel is auto. Called once the
+      reference genes are loaded and compiled, before the genes are tested against them. The
+      pick is kept for the reference peptides it was made on, so later runs of the JVM on the
+      same references reuse it instead of timing the engines again*/
+    public static synchronized void Tune(List<Gene> referenceGenes)
+    {
+        if (!KERNEL.equals("auto"))
+            return;
+        List<String> content = new ArrayList<String>(referenceGenes.size());
+        List<PeptideSequence> references = new ArrayList<PeptideSequence>(referenceGenes.size());
+        for (Gene referenceGene : referenceGenes)
+        {
+            content.add(referenceGene.sequence.toString());
+            references.add(referenceGene.sequence);
+        }
+        HomologyEngine picked = tuned.get(content);
+        if (picked == null)
+        {
+            picked = HomologyAutotuner.Tune(HomologyEngines.Available(), references, CUTOFF);
+            tuned.put(content, picked);
+        }
+        engine = picked;
+    }
+
+    public static HomologyEngine getEngine()
+    {
+        return engine;
+    }
+
+    /*The workspace of the calling thread, shared by the engines*/
+    static AlignmentWorkspace Workspace()
+    {
+        return workspace.get();
+    }
+
+    /*The exact score, from the score cache when there is one*/
+    public static float Similarity(PeptideSequence A, PeptideSequence B)
+    {
+        if (cache == null)
+            return engine.Similarity(A, B);
+        float score = cache.Get(A, B);
+        if (Float.isNaN(score))
+        {
+            score = engine.Similarity(A, B);
+            cache.Put(A, B, score);
+        }
+        return score;
+    }
+
+    /*The exact scores of many genes against one reference; the genes missing from the score
+      cache are scored together*/
+    public static float[] Similarity(List<PeptideSequence> A, PeptideSequence B)
+    {
+        if (cache == null)
+            return engine.Similarity(A, B);
+        float[] scores = new float[A.size()];
+        List<Integer> indices = new ArrayList<Integer>();
+        List<PeptideSequence> genes = new ArrayList<PeptideSequence>();
+        for (int i = 0; i < A.size(); i++)
+        {
+            scores[i] = cache.Get(A.get(i), B);
+            if (Float.isNaN(scores[i]))
+            {
+                indices.add(i);
+                genes.add(A.get(i));
+            }
+        }
+        float[] missing = engine.Similarity(genes, B);
+        for (int i = 0; i < missing.length; i++)
+        {
+            cache.Put(genes.get(i), B, missing[i]);
+            scores[indices.get(i)] = missing[i];
+        }
+        return scores;
+    }
+
+    /*A peptide shared by several genes of a run (Translations) is only tested once against
+      each reference; the other genes reuse the decision*/
+    public static boolean Homologous(PeptideSequence A, PeptideSequence B)
+    {
+        Boolean known = Translations.Known(A, B);
+        if (known != null)
+        {
+            reused.increment();
+            return known;
+        }
+        boolean decision = Test(A, B);
+        Translations.Remember(A, B, decision);
+        return decision;
+    }
+
+    private static boolean Test(PeptideSequence A, PeptideSequence B)
+    {
+        if (B.profile != null && Pruned(A, B))
+            return false;
+        if (cache != null)
+            return Similarity(A, B) >= CUTOFF;
+        if (APPROXIMATE && B.profile != null)
+        {
+            Boolean decision = Ungapped(A, B);
+            boolean sampled = Sampled();
+            if (decision != null && !sampled)
+                return decision;
+            boolean exact = engine.Homologous(A, B, CUTOFF);
+            return Decide(decision, exact, sampled);
+        }
+        return engine.Homologous(A, B, CUTOFF);
+    }
+
+    /*Tests many genes against one reference. The genes that pass the prefilter are handed to
+      the engine together, so the batch engine can align them BATCH at a time*/
+    public static boolean[] Homologous(List<PeptideSequence> A, PeptideSequence B)
+    {
+        boolean[] homologous = new boolean[A.size()];
+        List<Integer> indices = new ArrayList<Integer>(A.size());
+        List<PeptideSequence> genes = new ArrayList<PeptideSequence>(A.size());
+        for (int i = 0; i < A.size(); i++)
+        {
+            Boolean known = Translations.Known(A.get(i), B);
+            if (known != null)
+            {
+                reused.increment();
+                homologous[i] = known;
+            }
+            else
+            {
+                indices.add(i);
+                genes.add(A.get(i));
+            }
+        }
+        boolean[] tested = Test(genes, B);
+        for (int i = 0; i < tested.length; i++)
+        {
+            homologous[indices.get(i)] = tested[i];
+            Translations.Remember(genes.get(i), B, tested[i]);
+        }
+        return homologous;
+    }
+
+    private static boolean[] Test(List<PeptideSequence> A, PeptideSequence B)
+    {
+        if (B.profile == null)
+            return cache != null ? Reached(Similarity(A, B)) : engine.Homologous(A, B, CUTOFF);
+        List<Integer> indices = new ArrayList<Integer>(A.size());
+        List<PeptideSequence> genes = new ArrayList<PeptideSequence>(A.size());
+        for (int i = 0; i < A.size(); i++)
+            if (!Pruned(A.get(i), B))
+            {
+                indices.add(i);
+                genes.add(A.get(i));
+            }
+        if (cache == null && APPROXIMATE)
+            return Approximate(A.size(), indices, genes, B);
+        boolean[] reached = cache != null ? Reached(Similarity(genes, B)) : engine.Homologous(genes, B, CUTOFF);
+        boolean[] homologous = new boolean[A.size()];
+        for (int i = 0; i < reached.length; i++)
+            homologous[indices.get(i)] = reached[i];
+        return homologous;
+    }
+
+    private static boolean[] Reached(float[] scores)
+    {
+        boolean[] homologous = new boolean[scores.length];
+        for (int i = 0; i < scores.length; i++)
+            homologous[i] = scores[i] >= CUTOFF;
+        return homologous;
+    }
+
+    /*Approximate mode for the genes that passed the prefilter: only the borderline and the
+      sampled ones are handed to the engine*/
+    private static boolean[] Approximate(int size, List<Integer> indices, List<PeptideSequence> genes, PeptideSequence B)
+    {
+        boolean[] homologous = new boolean[size];
+        List<Integer> exactIndices = new ArrayList<Integer>();
+        List<PeptideSequence> exactGenes = new ArrayList<PeptideSequence>();
+        List<Boolean> decisions = new ArrayList<Boolean>();
+        List<Boolean> sampled = new ArrayList<Boolean>();
+        for (int i = 0; i < genes.size(); i++)
+        {
+            Boolean decision = Ungapped(genes.get(i), B);
+            boolean sample = Sampled();
+            if (decision != null && !sample)
+                homologous[indices.get(i)] = decision;
+            else
+            {
+                exactIndices.add(indices.get(i));
+                exactGenes.add(genes.get(i));
+                decisions.add(decision);
+                sampled.add(sample);
+            }
+        }
+        boolean[] exact = engine.Homologous(exactGenes, B, CUTOFF);
+        for (int i = 0; i < exact.length; i++)
+            homologous[exactIndices.get(i)] = Decide(decisions.get(i), exact[i], sampled.get(i));
+        return homologous;
+    }
+
+    /*Decides a pair from the best ungapped extension of its shared words, or returns null
+      when the score is borderline*/
+    private static Boolean Ungapped(PeptideSequence A, PeptideSequence B)
+    {
+        approximated.increment();
+        float score = UngappedExtension.score(A.toSequence(), B.profile, X_DROP, workspace.get());
+        if (score >= CUTOFF)
+            return Boolean.TRUE;
+        if (score < FLOOR)
+            return Boolean.FALSE;
+        borderline.increment();
+        return null;
+    }
+
+    private static boolean Sampled()
+    {
+        return SAMPLE > 0 && ThreadLocalRandom.current().nextInt(SAMPLE) == 0;
+    }
+
+    /*The approximate decision if there is one, the exact one otherwise; sampled pairs are
+      counted against the exact decision*/
+    private static boolean Decide(Boolean approximate, boolean exact, boolean sampled)
+    {
+        boolean decision = approximate == null ? exact : approximate;
+        if (sampled)
+        {
+            if (decision && exact)
+                truePositives.increment();
+            else if (decision)
+                falsePositives.increment();
+            else if (exact)
+                falseNegatives.increment();
+            else
+                trueNegatives.increment();
+        }
+        return decision;
+    }
+
+    /*Counts a pair against a compiled reference, and tells whether the prefilter rejects it*/
+    private static boolean Pruned(PeptideSequence A, PeptideSequence B)
+    {
+        pairs.increment();
+        if (PREFILTER && ScoreBound.excludes(A.toSequence(), B.profile, CUTOFF, workspace.get()))
+        {
+            pruned.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public static long getPairs()
+    {
+        return pairs.sum();
+    }
+
+    public static long getPruned()
+    {
+        return pruned.sum();
+    }
+
+    /*The settings the homology decisions depend on; the engines and the caches only change
+      how fast they are made*/
+    public static String Parameters()
+    {
+        String parameters = String.format("%s open %s extend %s cutoff %s", BLOSUM_62.getId(), OPEN, EXTEND, CUTOFF);
+        if (APPROXIMATE)
+            parameters += String.format(" approximate xdrop %s floor %s", X_DROP, FLOOR);
+        return parameters;
+    }
+
+    public static String PrefilterReport()
+    {
+        long total = getPairs();
+        long rejected = getPruned();
+        return String.format("Prefilter: pruned %d of %d pairs (%.1f%%)", rejected, total, total == 0 ? 0.0 : 100.0 * rejected / total);
+    }
+
+    public static String DedupeReport()
+    {
+        return String.format("Dedupe: %d distinct translations, %d homology tests reused", Translations.Distinct(), reused.sum());
+    }
+
+    public static String CacheReport()
+    {
+        if (cache == null)
+            return "Score cache: off";
+        return String.format("Score cache: %d hits, %d misses", cache.getHits(), cache.getMisses());
+    }
+
+    public static String EngineReport()
+    {
+        return "Homology engine: " + engine.getName();
+    }
+
+    public static String ApproximateReport()
+    {
+        if (!APPROXIMATE)
+            return "Approximate mode: off";
+        long tp = truePositives.sum(), fp = falsePositives.sum(), fn = falseNegatives.sum();
+        long sampled = tp + fp + fn + trueNegatives.sum();
+        return String.format("Approximate mode: %d of %d pairs borderline; on %d sampled pairs precision %.4f, recall %.4f (%d homologous pairs missed)",
+                borderline.sum(), approximated.sum(), sampled, tp + fp == 0 ? 1.0 : (double) tp / (tp + fp), tp + fn == 0 ? 1.0 : (double) tp / (tp + fn), fn);
+    }
+}
@@ -0,0 +1,209 @@
+package qut;
+
+import java.util.*;
+
+/*Picks the fastest homology engine for each range of gene lengths on this host. The genes
+  of each range are sampled as windows of the reference peptides, so the samples have the
+  composition of real genes and some of them are homologous to the references they are
+  timed against. Every engine is first run over the sample for WARMUP nanoseconds, so it is
+  timed once the JIT has compiled it, then timed over ROUNDS rounds; the best round counts.
+  As all engines make the same decisions, the tuned engine does too*/
+
+public class HomologyAutotuner
+{
+    /*Largest gene length, in residues, of each length bucket but the last, which is open*/
+    public static final int[] BOUNDS = {128, 256, 512, 1024};
+    /*Genes sampled per bucket, four batches of the batch engine, and references timed against*/
+    private static final int GENES = 32;
+    private static final int REFERENCES = 4;
+    private static final int ROUNDS = 5;
+    private static final long WARMUP = 200_000_000L;
+    /*An engine whose warmed-up round is this many times slower than the fastest engine so far
+      is not timed further*/
+    private static final int SLOWER = 2;
+    private static final long SEED = 401;
+
+    public static HomologyEngine Tune(List<HomologyEngine> candidates, List<PeptideSequence> references, float cutoff)
+    {
+        HomologyEngine[] engines = new HomologyEngine[BOUNDS.length + 1];
+        if (references.isEmpty())
+        {
+            Arrays.fill(engines, candidates.get(candidates.size() - 1));
+            return new Tuned(engines);
+        }
+        Random random = new Random(SEED);
+        List<PeptideSequence> sampledReferences = new ArrayList<PeptideSequence>();
+        for (int i = 0; i < REFERENCES; i++)
+            sampledReferences.add(references.get(random.nextInt(references.size())));
+
+        for (int bucket = 0; bucket < engines.length; bucket++)
+        {
+            List<PeptideSequence> genes = SampleGenes(references, Length(bucket), random);
+            long fastest = Long.MAX_VALUE;
+            // The later engines are usually the faster ones, so trying them first lets the
+            // warm-up run alone rule out an engine far slower than the fastest so far
+            for (int k = candidates.size() - 1; k >= 0; k--)
+            {
+                HomologyEngine candidate = candidates.get(k);
+                if (WarmUp(candidate, genes, sampledReferences, cutoff) / SLOWER > fastest)
+                    continue;
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++)
+                    best = Math.min(best, Time(candidate, genes, sampledReferences, cutoff));
+                if (best < fastest)
+                {
+                    fastest = best;
+                    engines[bucket] = candidate;
+                }
+            }
+        }
+        return new Tuned(engines);
+    }
+
+    static int Bucket(int length)
+    {
+        int bucket = 0;
+        while (bucket < BOUNDS.length && length > BOUNDS[bucket])
+            bucket++;
+        return bucket;
+    }
+
+    /*Length of the sampled genes of a bucket: its middle, or half again its start for the last one*/
+    private static int Length(int bucket)
+    {
+        int low = bucket == 0 ? 0 : BOUNDS[bucket - 1];
+        return bucket < BOUNDS.length ? (low + BOUNDS[bucket]) / 2 : low + low / 2;
+    }
+
+    /*Windows of the given length, cut from the concatenated reference peptides*/
+    private static List<PeptideSequence> SampleGenes(List<PeptideSequence> references, int length, Random random)
+    {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 2 * length)
+            for (PeptideSequence reference : references)
+                builder.append(reference.toString());
+        String pool = builder.toString();
+
+        List<PeptideSequence> genes = new ArrayList<PeptideSequence>(GENES);
+        for (int i = 0; i < GENES; i++)
+        {
+            int start = random.nextInt(pool.length() - length + 1);
+            genes.add(new PeptideSequence(pool.substring(start, start + length)));
+        }
+        return genes;
+    }
+
+    /*Runs the engine over the sample until WARMUP nanoseconds have passed, and returns the
+      time of its last round*/
+    private static long WarmUp(HomologyEngine engine, List<PeptideSequence> genes, List<PeptideSequence> references, float cutoff)
+    {
+        long elapsed = 0;
+        long last;
+        do
+        {
+            last = Time(engine, genes, references, cutoff);
+            elapsed += last;
+        }
+        while (elapsed < WARMUP);
+        return last;
+    }
+
+    private static long Time(HomologyEngine engine, List<PeptideSequence> genes, List<PeptideSequence> references, float cutoff)
+    {
+        long start = System.nanoTime();
+        for (PeptideSequence reference : references)
+            engine.Homologous(genes, reference, cutoff);
+        return System.nanoTime() - start;
+    }
+
+    /*Hands each gene to the engine picked for its length*/
+    private static class Tuned implements HomologyEngine
+    {
+        private final HomologyEngine[] engines;
+
+        Tuned(HomologyEngine[] engines)
+        {
+            this.engines = engines;
+        }
+
+        public String getName()
+        {
+            StringBuilder builder = new StringBuilder("auto(");
+            for (int bucket = 0; bucket < engines.length; bucket++)
+            {
+                if (bucket > 0)
+                    builder.append(", ");
+                if (bucket < BOUNDS.length)
+                    builder.append("<=").append(BOUNDS[bucket]);
+                else
+                    builder.append(">").append(BOUNDS[BOUNDS.length - 1]);
+                builder.append(":").append(engines[bucket].getName());
+            }
+            return builder.append(")").toString();
+        }
+
+        public float Similarity(PeptideSequence A, PeptideSequence B)
+        {
+            return engines[Bucket(A.bytes.length)].Similarity(A, B);
+        }
+
+        public boolean Homologous(PeptideSequence A, PeptideSequence B, float cutoff)
+        {
+            return engines[Bucket(A.bytes.length)].Homologous(A, B, cutoff);
+        }
+
+        /*Genes of the same bucket are handed over together, so batch engines keep their lanes full*/
+        @Override
+        public float[] Similarity(List<PeptideSequence> A, PeptideSequence B)
+        {
+            float[] scores = new float[A.size()];
+            List<List<Integer>> groups = Groups(A);
+            for (int bucket = 0; bucket < engines.length; bucket++)
+            {
+                List<Integer> group = groups.get(bucket);
+                if (group.isEmpty())
+                    continue;
+                float[] grouped = engines[bucket].Similarity(Genes(A, group), B);
+                for (int i = 0; i < grouped.length; i++)
+                    scores[group.get(i)] = grouped[i];
+            }
+            return scores;
+        }
+
+        @Override
+        public boolean[] Homologous(List<PeptideSequence> A, PeptideSequence B, float cutoff)
+        {
+            boolean[] homologous = new boolean[A.size()];
+            List<List<Integer>> groups = Groups(A);
+            for (int bucket = 0; bucket < engines.length; bucket++)
+            {
+                List<Integer> group = groups.get(bucket);
+                if (group.isEmpty())
+                    continue;
+                boolean[] reached = engines[bucket].Homologous(Genes(A, group), B, cutoff);
+                for (int i = 0; i < reached.length; i++)
+                    homologous[group.get(i)] = reached[i];
+            }
+            return homologous;
+        }
+
+        /*Indices of the genes of each bucket*/
+        private List<List<Integer>> Groups(List<PeptideSequence> A)
+        {
+            List<List<Integer>> groups = new ArrayList<List<Integer>>();
+            for (int bucket = 0; bucket < engines.length; bucket++)
+                groups.add(new ArrayList<Integer>());
+            for (int i = 0; i < A.size(); i++)
+                groups.get(Bucket(A.get(i).bytes.length)).add(i);
+            return groups;
+        }
+
+        private static List<PeptideSequence> Genes(List<PeptideSequence> A, List<Integer> group)
+        {
+            List<PeptideSequence> genes = new ArrayList<PeptideSequence>(group.size());
+            for (int i : group)
+                genes.add(A.get(i));
+            return genes;
+        }
+    }
+}
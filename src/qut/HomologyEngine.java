@@ -0,0 +1,37 @@
+package qut;
+
+import java.util.*;
+
+/*A way of deciding whether two peptides are homologous. Every engine returns the same
+  similarity score and the same decisions; they only differ in speed. The engines are
+  listed in HomologyEngines, and Homology uses the one named by -Dhomology.kernel, or the
+  one picked per gene length by HomologyAutotuner*/
+
+public interface HomologyEngine
+{
+    String getName();
+
+    /*Score of the best local alignment of A against B, with BLOSUM62 and gaps 10/0.5*/
+    float Similarity(PeptideSequence A, PeptideSequence B);
+
+    /*Whether the score of A against B reaches cutoff; may stop before the full score is known*/
+    boolean Homologous(PeptideSequence A, PeptideSequence B, float cutoff);
+
+    /*Scores many genes against one reference, in the order of A*/
+    default float[] Similarity(List<PeptideSequence> A, PeptideSequence B)
+    {
+        float[] scores = new float[A.size()];
+        for (int i = 0; i < scores.length; i++)
+            scores[i] = Similarity(A.get(i), B);
+        return scores;
+    }
+
+    /*Tests many genes against one reference, in the order of A*/
+    default boolean[] Homologous(List<PeptideSequence> A, PeptideSequence B, float cutoff)
+    {
+        boolean[] homologous = new boolean[A.size()];
+        for (int i = 0; i < homologous.length; i++)
+            homologous[i] = Homologous(A.get(i), B, cutoff);
+        return homologous;
+    }
+}
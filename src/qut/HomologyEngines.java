@@ -0,0 +1,175 @@
+package qut;
+
+import jaligner.*;
+
+import java.util.*;
+
+/*The homology engines, from the reference scalar path to the batch kernel. The integer
+  engines need BLOSUM62 and the gap penalties to scale exactly (Homology.SCALED_BLOSUM_62);
+  when they do not, only the reference and float engines are available. An engine given a
+  reference without a compiled profile aligns the pair directly*/
+
+public class HomologyEngines
+{
+    /*Full alignment with traceback, as the program originally did*/
+    public static final HomologyEngine REFERENCE = new Reference();
+    /*Score-only float kernel*/
+    public static final HomologyEngine FLOAT = new Scalar();
+    /*Integer kernel, against the compiled reference*/
+    public static final HomologyEngine INTEGER = new Quantized();
+    /*Striped integer kernel, against the compiled reference*/
+    public static final HomologyEngine STRIPED = new Striped();
+    /*A band around the seed diagonal first, then the striped kernel*/
+    public static final HomologyEngine BANDED = new Banded();
+    /*Banded for single pairs; many genes are aligned BatchSmithWatermanGotoh.LANES at a time*/
+    public static final HomologyEngine BATCH = new Batch();
+
+    private static final List<HomologyEngine> ALL = Arrays.asList(REFERENCE, FLOAT, INTEGER, STRIPED, BANDED, BATCH);
+
+    /*Engines that can run with the current matrix and gap penalties*/
+    public static List<HomologyEngine> Available()
+    {
+        return Homology.SCALED_BLOSUM_62 == null ? Arrays.asList(REFERENCE, FLOAT) : ALL;
+    }
+
+    public static HomologyEngine Named(String name)
+    {
+        for (HomologyEngine engine : Available())
+            if (engine.getName().equals(name))
+                return engine;
+        throw new IllegalArgumentException("Unknown or unavailable homology engine: " + name);
+    }
+
+    private static class Reference implements HomologyEngine
+    {
+        public String getName()
+        {
+            return "reference";
+        }
+
+        public float Similarity(PeptideSequence A, PeptideSequence B)
+        {
+            return SmithWatermanGotoh.align(A.toSequence(), B.toSequence(), Homology.BLOSUM_62, Homology.OPEN, Homology.EXTEND, Homology.Workspace()).calculateScore();
+        }
+
+        public boolean Homologous(PeptideSequence A, PeptideSequence B, float cutoff)
+        {
+            return Similarity(A, B) >= cutoff;
+        }
+    }
+
+    private static class Scalar implements HomologyEngine
+    {
+        public String getName()
+        {
+            return "float";
+        }
+
+        public float Similarity(PeptideSequence A, PeptideSequence B)
+        {
+            return SmithWatermanGotoh.score(A.toSequence(), B.toSequence(), Homology.BLOSUM_62, Homology.OPEN, Homology.EXTEND, Homology.Workspace());
+        }
+
+        public boolean Homologous(PeptideSequence A, PeptideSequence B, float cutoff)
+        {
+            return Similarity(A, B) >= cutoff;
+        }
+    }
+
+    private static class Quantized implements HomologyEngine
+    {
+        public String getName()
+        {
+            return "integer";
+        }
+
+        public float Similarity(PeptideSequence A, PeptideSequence B)
+        {
+            if (B.profile != null)
+                return QuantizedSmithWatermanGotoh.score(A.toSequence(), B.profile, Homology.Workspace());
+            return QuantizedSmithWatermanGotoh.score(A.toSequence(), B.toSequence(), Homology.SCALED_BLOSUM_62, Homology.Workspace());
+        }
+
+        /*Stops as soon as the cutoff is reached, or as soon as the remaining residues of A
+          can no longer lift the score to it*/
+        public boolean Homologous(PeptideSequence A, PeptideSequence B, float cutoff)
+        {
+            if (B.profile != null)
+                return QuantizedSmithWatermanGotoh.reaches(A.toSequence(), B.profile, cutoff, Homology.Workspace());
+            return Similarity(A, B) >= cutoff;
+        }
+    }
+
+    private static class Striped implements HomologyEngine
+    {
+        public String getName()
+        {
+            return "striped";
+        }
+
+        public float Similarity(PeptideSequence A, PeptideSequence B)
+        {
+            if (B.profile != null)
+                return StripedSmithWatermanGotoh.score(A.toSequence(), B.profile, Homology.Workspace());
+            return StripedSmithWatermanGotoh.score(A.toSequence(), B.toSequence(), Homology.SCALED_BLOSUM_62, Homology.Workspace());
+        }
+
+        public boolean Homologous(PeptideSequence A, PeptideSequence B, float cutoff)
+        {
+            if (B.profile != null)
+                return StripedSmithWatermanGotoh.reaches(A.toSequence(), B.profile, cutoff, Homology.Workspace());
+            return Similarity(A, B) >= cutoff;
+        }
+    }
+
+    /*The band can only prove homology; when it does not, the striped kernel decides*/
+    private static class Banded extends Striped
+    {
+        @Override
+        public String getName()
+        {
+            return "banded";
+        }
+
+        @Override
+        public boolean Homologous(PeptideSequence A, PeptideSequence B, float cutoff)
+        {
+            if (B.profile != null && BandedSmithWatermanGotoh.reachesInBand(A.toSequence(), B.profile, cutoff, Homology.Workspace()))
+                return true;
+            return super.Homologous(A, B, cutoff);
+        }
+    }
+
+    private static class Batch extends Banded
+    {
+        @Override
+        public String getName()
+        {
+            return "batch";
+        }
+
+        @Override
+        public float[] Similarity(List<PeptideSequence> A, PeptideSequence B)
+        {
+            if (B.profile == null)
+                return super.Similarity(A, B);
+            return BatchSmithWatermanGotoh.scores(Sequences(A), B.profile, Homology.Workspace());
+        }
+
+        @Override
+        public boolean[] Homologous(List<PeptideSequence> A, PeptideSequence B, float cutoff)
+        {
+            if (B.profile == null)
+                return super.Homologous(A, B, cutoff);
+            return BatchSmithWatermanGotoh.reaches(Sequences(A), B.profile, cutoff, Homology.Workspace());
+        }
+
+        private static List<Sequence> Sequences(List<PeptideSequence> A)
+        {
+            List<Sequence> sequences = new ArrayList<Sequence>(A.size());
+            for (PeptideSequence peptide : A)
+                sequences.add(peptide.toSequence());
+            return sequences;
+        }
+    }
+}
@@ -1,13 +1,26 @@
 package qut;
 
+import edu.au.jacobi.pattern.Series;
 import java.io.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class NucleotideSequence
 {
     public byte[] bytes;
 
-    private static byte[] complement = new byte['z'];
+    /*For an upstream region, the genome it was cut from, the strand of the gene and the start
+      of the region on that strand (on the reverse complement for strand -1); null otherwise*/
+    public NucleotideSequence genome;
+    public int strand;
+    public int offset;
+
+    /*PWM scores of the genome for each pattern by its fingerprint, filled as regions of it are
+      predicted, see PromoterTrack*/
+    private volatile Map<Long, PromoterTrack> tracks;
+
+    static byte[] complement = new byte['z'];
 
     static
     {
@@ -30,6 +43,29 @@ public class NucleotideSequence
     {
         bytes = string.getBytes();
     }
+
+    /*A region of genome on the given strand, starting at offset on that strand*/
+    public NucleotideSequence(byte[] sequence, NucleotideSequence genome, int strand, int offset)
+    {
+        this.bytes = sequence;
+        this.genome = genome;
+        this.strand = strand;
+        this.offset = offset;
+    }
+
+    /*The score track of this genome for pattern, or null if pattern is not a PWM, a gap and a
+      PWM in series. Patterns with the same fingerprint (Sigma70Definition.Fingerprint), such as
+      the copies each thread makes of the same definition, share a track*/
+    public PromoterTrack Track(Series pattern)
+    {
+        if (tracks == null)
+            synchronized (this)
+            {
+                if (tracks == null)
+                    tracks = new ConcurrentHashMap<Long, PromoterTrack>();
+            }
+        return tracks.computeIfAbsent(Sigma70Definition.Fingerprint(pattern), fingerprint -> PromoterTrack.Of(pattern, this));
+    }
     
     public NucleotideSequence GetUpstreamRegion(Gene gene)
     {               
@@ -37,15 +73,16 @@ public class NucleotideSequence
         if (gene.location <= upStreamDistance)
            upStreamDistance = gene.location-1;
 
+        int offset = gene.location-upStreamDistance-1;
         if (gene.strand == 1)
-            return new NucleotideSequence(java.util.Arrays.copyOfRange(bytes, gene.location-upStreamDistance-1, gene.location-1));
+            return new NucleotideSequence(java.util.Arrays.copyOfRange(bytes, offset, gene.location-1), this, gene.strand, offset);
         else
         {
             byte[] result = new byte[upStreamDistance];
             int reverseStart = bytes.length - gene.location + upStreamDistance;
             for (int i=0; i<upStreamDistance; i++)
                 result[i] = complement[bytes[reverseStart-i]];
-            return new NucleotideSequence(result);
+            return new NucleotideSequence(result, this, gene.strand, offset);
         }
     }    
     
@@ -7,7 +7,9 @@ import edu.au.jacobi.pattern.*;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.concurrent.locks.ReentrantLock;
 import qut.parallel.GeneComparisionTask;
 
@@ -15,9 +17,11 @@ import qut.parallel.GeneComparisionTask;
 public class Parallel {
     private static HashMap<String, Sigma70Consensus> consensus = new HashMap<String, Sigma70Consensus>();
     private static final ThreadLocal<Series> sigma70_pattern = ThreadLocal.withInitial(() -> Sigma70Definition.getSeriesAll_Unanchored(0.7));
-    private static final Matrix BLOSUM_62 = BLOSUM62.Load();
     private static byte[] complement = new byte['z'];
     private static ReentrantLock lock = new ReentrantLock();
+    /*With -Dcheckpoint.dir=<dir>, the consensus of each file is kept in Checkpoints, and a rerun
+      merges it instead of processing the file again*/
+    private static final String CHECKPOINTS = System.getProperty("checkpoint.dir");
 
 
     static {
@@ -40,16 +44,20 @@ public class Parallel {
             if (name == null)
                 break;
             String sequence = reader.readLine();
-            referenceGenes.add(new Gene(name, 0, 0, sequence));
+            Gene referenceGene = new Gene(name, 0, 0, sequence);
+            Homology.CompileProfile(referenceGene.sequence);
+            referenceGenes.add(referenceGene);
             consensus.put(name, new Sigma70Consensus());
         }
         consensus.put("all", new Sigma70Consensus());
         reader.close();
+        Homology.Tune(referenceGenes);
+        Translations.Begin(referenceGenes);
         return referenceGenes;
     }
 
     private static boolean Homologous(PeptideSequence A, PeptideSequence B) {
-        return SmithWatermanGotoh.align(new Sequence(A.toString()), new Sequence(B.toString()), BLOSUM_62, 10f, 0.5f).calculateScore() >= 60;
+        return Homology.Homologous(A, B);
     }
 
     private static NucleotideSequence GetUpstreamRegion(NucleotideSequence dna, Gene gene) {
@@ -57,19 +65,20 @@ public class Parallel {
         if (gene.location < upStreamDistance)
             upStreamDistance = gene.location - 1;
 
+        int offset = gene.location - upStreamDistance - 1;
         if (gene.strand == 1)
-            return new NucleotideSequence(java.util.Arrays.copyOfRange(dna.bytes, gene.location - upStreamDistance - 1, gene.location - 1));
+            return new NucleotideSequence(java.util.Arrays.copyOfRange(dna.bytes, offset, gene.location - 1), dna, gene.strand, offset);
         else {
             byte[] result = new byte[upStreamDistance];
             int reverseStart = dna.bytes.length - gene.location + upStreamDistance;
             for (int i = 0; i < upStreamDistance; i++)
                 result[i] = complement[dna.bytes[reverseStart - i]];
-            return new NucleotideSequence(result);
+            return new NucleotideSequence(result, dna, gene.strand, offset);
         }
     }
 
     private static Match PredictPromoter(NucleotideSequence upStreamRegion) {
-        return BioPatterns.getBestMatch(sigma70_pattern.get(), upStreamRegion.toString());
+        return PredictionCache.Predict(sigma70_pattern.get(), upStreamRegion);
     }
 
     private static void ProcessDir(List<String> list, File dir) {
@@ -87,30 +96,59 @@ public class Parallel {
         return list;
     }
 
-    private static GenbankRecord Parse(String file) throws IOException {
-        GenbankRecord record = new GenbankRecord();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-        record.Parse(reader);
-        reader.close();
-        return record;
+
+    /*Hands each record of each file under dir to process, in order, while the records after it
+      are parsed in parallel (GenbankRecords.Parallel), so a file is never loaded whole. process
+      adds the predictions of the record to the partial consensus of its file, which is merged
+      into the run once the file is done and, with -Dcheckpoint.dir, kept in Checkpoints; a file
+      with a checkpoint is merged from it instead of being processed again*/
+    private static void ProcessRecords(String referenceFile, List<Gene> referenceGenes, String dir, BiConsumer<GenbankRecord, Map<String, Sigma70Consensus>> process) throws IOException {
+        Checkpoints checkpoints = CHECKPOINTS == null ? null : new Checkpoints(CHECKPOINTS, Parameters(referenceFile));
+        for (String filename : ListGenbankFiles(dir)) {
+            System.out.println(filename);
+            String key = checkpoints == null ? null : checkpoints.Key(filename);
+            Map<String, Sigma70Consensus> stored = key == null ? null : checkpoints.Load(key);
+            if (stored != null) {
+                Merge(stored);
+                continue;
+            }
+            HashMap<String, Sigma70Consensus> partial = Partial(referenceGenes);
+            try (Stream<GenbankRecord> records = GenbankRecords.Parallel(filename)) {
+                Iterator<GenbankRecord> iterator = records.iterator();
+                while (iterator.hasNext())
+                    process.accept(iterator.next(), partial);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Merge(partial);
+            if (checkpoints != null)
+                checkpoints.Store(key, partial);
+        }
+        if (checkpoints != null)
+            System.out.println(checkpoints.Report());
     }
 
+    /*Everything the consensus of a file depends on besides its content*/
+    private static String Parameters(String referenceFile) throws IOException {
+        return Homology.Parameters() + " references " + Checkpoints.Hash(referenceFile) + " promoters " + Long.toHexString(Sigma70Definition.Fingerprint(sigma70_pattern.get()));
+    }
+
+    private static HashMap<String, Sigma70Consensus> Partial(List<Gene> referenceGenes) {
+        HashMap<String, Sigma70Consensus> partial = new HashMap<String, Sigma70Consensus>();
+        for (Gene referenceGene : referenceGenes)
+            partial.put(referenceGene.name, new Sigma70Consensus());
+        partial.put("all", new Sigma70Consensus());
+        return partial;
+    }
+
+    private static void Merge(Map<String, Sigma70Consensus> partial) {
+        for (Map.Entry<String, Sigma70Consensus> entry : partial.entrySet())
+            consensus.get(entry.getKey()).addConsensus(entry.getValue());
+    }
 
     public void run_parallel_parse(String referenceFile, String dir) throws FileNotFoundException, IOException {
         List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
-        List<GenbankRecord> records = ListGenbankFiles(dir).parallelStream()
-                .map(file -> {
-                    try {
-                        System.out.println(file);
-                        return Parse(file);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    return null;
-                })
-                .collect(Collectors.toList());
-
-        for (GenbankRecord record : records) {
+        ProcessRecords(referenceFile, referenceGenes, dir, (record, partial) -> {
             for (Gene referenceGene : referenceGenes) {
                 System.out.println(referenceGene.name);
                 for (Gene gene : record.genes) {
@@ -118,115 +156,107 @@ public class Parallel {
                         NucleotideSequence upStreamRegion = GetUpstreamRegion(record.nucleotides, gene);
                         Match prediction = PredictPromoter(upStreamRegion);
                         if (prediction != null) {
-                            consensus.get(referenceGene.name).addMatch(prediction);
-                            consensus.get("all").addMatch(prediction);
+                            partial.get(referenceGene.name).addMatch(prediction);
+                            partial.get("all").addMatch(prediction);
                         }
                     }
                 }
             }
-        }
+        });
     }
 
     public void run_parallel_homologous_parallelStream(String referenceFile, String dir) throws FileNotFoundException, IOException {
         List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
-        List<GeneComparisionTask> geneComparisionTasks = new ArrayList<>();
 
-        for (String filename : ListGenbankFiles(dir)) {
-            System.out.println(filename);
-            GenbankRecord record = Parse(filename);
+        ProcessRecords(referenceFile, referenceGenes, dir, (record, partial) -> {
+            List<GeneComparisionTask> geneComparisionTasks = new ArrayList<>();
             for (Gene referenceGene : referenceGenes) {
                 System.out.println(referenceGene.name);
                 for (Gene gene : record.genes) {
                     geneComparisionTasks.add(new GeneComparisionTask(record.nucleotides, referenceGene, gene));
                 }
             }
-        }
 
-        List<GeneComparisionTask> comparisionResult = geneComparisionTasks.parallelStream()
-                .filter(geneComparisionTask -> Homologous(geneComparisionTask.getGene().sequence, geneComparisionTask.getReferenceGene().sequence))
-                .collect(Collectors.toList());
+            List<GeneComparisionTask> comparisionResult = geneComparisionTasks.parallelStream()
+                    .filter(geneComparisionTask -> Homologous(geneComparisionTask.getGene().sequence, geneComparisionTask.getReferenceGene().sequence))
+                    .collect(Collectors.toList());
 
-        for (GeneComparisionTask result : comparisionResult) {
-            NucleotideSequence upStreamRegion = GetUpstreamRegion(result.getNucleotideSequence(), result.getGene());
-            Match prediction = PredictPromoter(upStreamRegion);
-            if (prediction != null) {
-                consensus.get(result.getReferenceGene().name).addMatch(prediction);
-                consensus.get("all").addMatch(prediction);
+            for (GeneComparisionTask result : comparisionResult) {
+                NucleotideSequence upStreamRegion = GetUpstreamRegion(result.getNucleotideSequence(), result.getGene());
+                Match prediction = PredictPromoter(upStreamRegion);
+                if (prediction != null) {
+                    partial.get(result.getReferenceGene().name).addMatch(prediction);
+                    partial.get("all").addMatch(prediction);
+                }
             }
-        }
+        });
     }
 
     public void run_parallel_predictPromoter_parallelStream(String referenceFile, String dir) throws FileNotFoundException, IOException {
 
         List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
-        List<GeneComparisionTask> geneComparisionTasks = new ArrayList<>();
 
-        for (String filename : ListGenbankFiles(dir)) {
-            GenbankRecord record = Parse(filename);
-            System.out.println(filename);
+        ProcessRecords(referenceFile, referenceGenes, dir, (record, partial) -> {
+            List<GeneComparisionTask> geneComparisionTasks = new ArrayList<>();
             for (Gene referenceGene : referenceGenes) {
                 System.out.println(referenceGene.name);
                 for (Gene gene : record.genes) {
                     geneComparisionTasks.add(new GeneComparisionTask(record.nucleotides, referenceGene, gene));
                 }
             }
-        }
 
-        List<GeneComparisionTask> comparisionResult = geneComparisionTasks.parallelStream()
-                .filter(geneComparisionTask -> Homologous(geneComparisionTask.getGene().sequence, geneComparisionTask.getReferenceGene().sequence))
-                .map(geneComparisionTask -> {
-                    NucleotideSequence upStreamRegion = GetUpstreamRegion(geneComparisionTask.getNucleotideSequence(), geneComparisionTask.getGene());
-                    Match prediction = PredictPromoter(upStreamRegion);
-                    geneComparisionTask.setPrediction(prediction);
-                    return geneComparisionTask;
-                })
-                .collect(Collectors.toList());
-
-        for (GeneComparisionTask result : comparisionResult) {
-            if (result.getPrediction() != null) {
-                consensus.get(result.getReferenceGene().name).addMatch(result.getPrediction());
-                consensus.get("all").addMatch(result.getPrediction());
+            List<GeneComparisionTask> comparisionResult = geneComparisionTasks.parallelStream()
+                    .filter(geneComparisionTask -> Homologous(geneComparisionTask.getGene().sequence, geneComparisionTask.getReferenceGene().sequence))
+                    .map(geneComparisionTask -> {
+                        NucleotideSequence upStreamRegion = GetUpstreamRegion(geneComparisionTask.getNucleotideSequence(), geneComparisionTask.getGene());
+                        Match prediction = PredictPromoter(upStreamRegion);
+                        geneComparisionTask.setPrediction(prediction);
+                        return geneComparisionTask;
+                    })
+                    .collect(Collectors.toList());
+
+            for (GeneComparisionTask result : comparisionResult) {
+                if (result.getPrediction() != null) {
+                    partial.get(result.getReferenceGene().name).addMatch(result.getPrediction());
+                    partial.get("all").addMatch(result.getPrediction());
+                }
             }
-        }
+        });
     }
 
     public void run_parallel_addMatch_parallelStream(String referenceFile, String dir) throws FileNotFoundException, IOException {
         List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
-        List<GeneComparisionTask> geneComparisionTasks = new ArrayList<>();
 
-        for (String filename : ListGenbankFiles(dir)) {
-            System.out.println(filename);
-            GenbankRecord record = Parse(filename);
+        ProcessRecords(referenceFile, referenceGenes, dir, (record, partial) -> {
+            List<GeneComparisionTask> geneComparisionTasks = new ArrayList<>();
             for (Gene referenceGene : referenceGenes) {
                 System.out.println(referenceGene.name);
                 for (Gene gene : record.genes) {
                     geneComparisionTasks.add(new GeneComparisionTask(record.nucleotides, referenceGene, gene));
                 }
             }
-        }
 
-        geneComparisionTasks.parallelStream()
-                .filter(geneComparisionTask -> Homologous(geneComparisionTask.getGene().sequence, geneComparisionTask.getReferenceGene().sequence))
-                .forEach(geneComparisionTask -> {
-                    NucleotideSequence upStreamRegion = GetUpstreamRegion(geneComparisionTask.getNucleotideSequence(), geneComparisionTask.getGene());
-                    Match prediction = PredictPromoter(upStreamRegion);
-                    if (prediction != null) {
-                        lock.lock();
-                        consensus.get(geneComparisionTask.getReferenceGene().name).addMatch(prediction);
-                        consensus.get("all").addMatch(prediction);
-                        lock.unlock();
-                    }
-                });
+            geneComparisionTasks.parallelStream()
+                    .filter(geneComparisionTask -> Homologous(geneComparisionTask.getGene().sequence, geneComparisionTask.getReferenceGene().sequence))
+                    .forEach(geneComparisionTask -> {
+                        NucleotideSequence upStreamRegion = GetUpstreamRegion(geneComparisionTask.getNucleotideSequence(), geneComparisionTask.getGene());
+                        Match prediction = PredictPromoter(upStreamRegion);
+                        if (prediction != null) {
+                            lock.lock();
+                            partial.get(geneComparisionTask.getReferenceGene().name).addMatch(prediction);
+                            partial.get("all").addMatch(prediction);
+                            lock.unlock();
+                        }
+                    });
+        });
     }
 
     public void run_parallel_homologous_executorService(String referenceFile, String dir) throws FileNotFoundException, IOException {
         List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
         ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-        List<Future> comparisionResult = new ArrayList<>();
 
-        for (String filename : ListGenbankFiles(dir)) {
-            GenbankRecord record = Parse(filename);
-            System.out.println(filename);
+        ProcessRecords(referenceFile, referenceGenes, dir, (record, partial) -> {
+            List<Future> comparisionResult = new ArrayList<>();
             for (Gene referenceGene : referenceGenes) {
                 System.out.println(referenceGene.name);
                 for (Gene gene : record.genes) {
@@ -234,35 +264,33 @@ public class Parallel {
                     comparisionResult.add(futureResult);
                 }
             }
-        }
 
-        for (Future future : comparisionResult) {
-            try {
-                CallableTaskHomologous result = (CallableTaskHomologous) future.get();
-                if (result.result) {
-                    NucleotideSequence upStreamRegion = GetUpstreamRegion(result.getNucleotideSequence(), result.getGene());
-                    Match prediction = PredictPromoter(upStreamRegion);
-                    if (prediction != null) {
-                        consensus.get(result.getReferenceGene().name).addMatch(prediction);
-                        consensus.get("all").addMatch(prediction);
+            for (Future future : comparisionResult) {
+                try {
+                    CallableTaskHomologous result = (CallableTaskHomologous) future.get();
+                    if (result.result) {
+                        NucleotideSequence upStreamRegion = GetUpstreamRegion(result.getNucleotideSequence(), result.getGene());
+                        Match prediction = PredictPromoter(upStreamRegion);
+                        if (prediction != null) {
+                            partial.get(result.getReferenceGene().name).addMatch(prediction);
+                            partial.get("all").addMatch(prediction);
+                        }
                     }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
                 }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
             }
-        }
+        });
     }
 
     public void run_parallel_predictPromoter_executorService(String referenceFile, String dir) throws FileNotFoundException, IOException {
         List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
         ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-        List<Future> comparisionResult = new ArrayList<>();
 
-        for (String filename : ListGenbankFiles(dir)) {
-            GenbankRecord record = Parse(filename);
-            System.out.println(filename);
+        ProcessRecords(referenceFile, referenceGenes, dir, (record, partial) -> {
+            List<Future> comparisionResult = new ArrayList<>();
             for (Gene referenceGene : referenceGenes) {
                 System.out.println(referenceGene.name);
                 for (Gene gene : record.genes) {
@@ -270,67 +298,72 @@ public class Parallel {
                     comparisionResult.add(futureResult);
                 }
             }
-        }
 
-        for (Future future : comparisionResult) {
-            try {
-                CallableTaskPredictPromoter result = (CallableTaskPredictPromoter) future.get();
-                if (result.prediction != null) {
-                    consensus.get(result.getReferenceGene().name).addMatch(result.prediction);
-                    consensus.get("all").addMatch(result.prediction);
+            for (Future future : comparisionResult) {
+                try {
+                    CallableTaskPredictPromoter result = (CallableTaskPredictPromoter) future.get();
+                    if (result.prediction != null) {
+                        partial.get(result.getReferenceGene().name).addMatch(result.prediction);
+                        partial.get("all").addMatch(result.prediction);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
                 }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
             }
-        }
+        });
     }
 
     public void run_parallel_addMatch_executorService(String referenceFile, String dir) throws FileNotFoundException, IOException {
         List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
         ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-        List<Future> results = new ArrayList<>();
 
-        for (String filename : ListGenbankFiles(dir)) {
-            GenbankRecord record = Parse(filename);
-            System.out.println(filename);
+        ProcessRecords(referenceFile, referenceGenes, dir, (record, partial) -> {
+            List<Future> results = new ArrayList<>();
             for (Gene referenceGene : referenceGenes) {
                 System.out.println(referenceGene.name);
                 for (Gene gene : record.genes) {
-                    Future futureResult = executorService.submit(new RunnableTaskAddMatch(record.nucleotides, referenceGene, gene));
+                    Future futureResult = executorService.submit(new RunnableTaskAddMatch(record.nucleotides, referenceGene, gene, partial));
                     results.add(futureResult);
                 }
             }
-        }
-        for (Future future : results) {
-            try {
-                future.get();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
+            for (Future future : results) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                }
             }
-        }
+        });
     }
 
     public void run_sequential(String referenceFile, String dir) throws FileNotFoundException, IOException {
         List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
         for (String filename : ListGenbankFiles(dir)) {
             System.out.println(filename);
-            GenbankRecord record = Parse(filename);
-            for (Gene referenceGene : referenceGenes) {
-                System.out.println(referenceGene.name);
-                for (Gene gene : record.genes){
-                    if (Homologous(gene.sequence, referenceGene.sequence)) {
-                        NucleotideSequence upStreamRegion = GetUpstreamRegion(record.nucleotides, gene);
-                        Match prediction = PredictPromoter(upStreamRegion);
-                        if (prediction != null) {
-                            consensus.get(referenceGene.name).addMatch(prediction);
-                            consensus.get("all").addMatch(prediction);
+            try (Stream<GenbankRecord> records = GenbankRecords.Stream(filename)) {
+                Iterator<GenbankRecord> iterator = records.iterator();
+                while (iterator.hasNext()) {
+                    GenbankRecord record = iterator.next();
+                    for (Gene referenceGene : referenceGenes) {
+                        System.out.println(referenceGene.name);
+                        for (Gene gene : record.genes){
+                            if (Homologous(gene.sequence, referenceGene.sequence)) {
+                                NucleotideSequence upStreamRegion = GetUpstreamRegion(record.nucleotides, gene);
+                                Match prediction = PredictPromoter(upStreamRegion);
+                                if (prediction != null) {
+                                    consensus.get(referenceGene.name).addMatch(prediction);
+                                    consensus.get("all").addMatch(prediction);
+                                }
+                            }
                         }
                     }
                 }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
         }
     }
@@ -419,11 +452,13 @@ public class Parallel {
         private final NucleotideSequence nucleotideSequence;
         private final Gene gene;
         private final Gene referenceGene;
+        private final Map<String, Sigma70Consensus> partial;
 
-        public RunnableTaskAddMatch(NucleotideSequence nucleotideSequence, Gene referenceGene, Gene gene) {
+        public RunnableTaskAddMatch(NucleotideSequence nucleotideSequence, Gene referenceGene, Gene gene, Map<String, Sigma70Consensus> partial) {
             this.nucleotideSequence = nucleotideSequence;
             this.referenceGene = referenceGene;
             this.gene = gene;
+            this.partial = partial;
         }
 
         @Override
@@ -433,8 +468,8 @@ public class Parallel {
                 Match prediction = PredictPromoter(upStreamRegion);
                 if (prediction != null) {
                     lock.lock();
-                    consensus.get(referenceGene.name).addMatch(prediction);
-                    consensus.get("all").addMatch(prediction);
+                    partial.get(referenceGene.name).addMatch(prediction);
+                    partial.get("all").addMatch(prediction);
                     lock.unlock();
                 }
             }
@@ -445,13 +480,23 @@ public class Parallel {
         long average = 0;
         String referenceFile = "referenceGenes.list"; //Modify the string with your path to the file to run the program
         String directory= "Ecoli"; //Modify the string with your path to the folder to run the program
+        // Tunes the homology engine before the timed runs, which reuse its pick
+        ParseReferenceGenes(referenceFile);
         for (int i = 0; i < 10; i++) {
             long start = System.currentTimeMillis();
             new Parallel().run_parallel_homologous_executorService(referenceFile, directory);
+            Translations.End();
             long end = System.currentTimeMillis();
             System.out.println(String.format("Run for: %s seconds", (end - start) / 1000));
             average += (end - start) / 1000;
         }
         System.out.println("Average: " + average / 10 + " seconds");
+        System.out.println(Homology.PrefilterReport());
+        System.out.println(Homology.DedupeReport());
+        System.out.println(Homology.CacheReport());
+        System.out.println(Homology.EngineReport());
+        System.out.println(Homology.ApproximateReport());
+        System.out.println(PredictionCache.Report());
+        System.out.println(PromoterTrack.Report());
     }
 }
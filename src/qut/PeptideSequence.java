@@ -9,7 +9,18 @@ public class PeptideSequence
 {
     public byte[] bytes;
 
-    private static final Matrix BLOSUM_62 = BLOSUM62.Load();
+    /*Residue codes of bytes (see jaligner.matrix.Alphabet), encoded once when the gene is parsed*/
+    public byte[] codes;
+
+    private volatile Sequence sequence;
+
+    /*Compiled query profile, set for the reference genes by Homology.CompileProfile*/
+    public QueryProfile profile;
+
+    /*The run that interned this peptide (see Translations), and its decision against each
+      reference of that run: 0 untested, 1 not homologous, 2 homologous*/
+    long run;
+    byte[] decisions;
 
     public PeptideSequence()
     {
@@ -18,11 +29,26 @@ public class PeptideSequence
     public PeptideSequence(String string)
     {
         bytes = string.getBytes();
+        codes = Alphabet.encode(bytes);
     }
     
+    /*The peptide of a translation, shared within the current run (Translations.Intern)*/
+    public static PeptideSequence Intern(String string)
+    {
+        return Translations.Intern(string);
+    }
+
     public static double Similarity(PeptideSequence A, PeptideSequence B)
     {  
-        return SmithWatermanGotoh.align(new Sequence(A.toString()), new Sequence(B.toString()), BLOSUM_62, 10f, 0.5f).calculateScore();       
+        return Homology.Similarity(A, B);
+    }
+
+    /*The jaligner view of this peptide, created once and reused by every alignment*/
+    public Sequence toSequence()
+    {
+        if (sequence == null)
+            sequence = new Sequence(toString(), codes);
+        return sequence;
     }
     
     @Override
@@ -0,0 +1,301 @@
+package qut;
+
+import edu.au.jacobi.pattern.*;
+import edu.au.jacobi.sequence.Sequence;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/*Promoter predictions of upstream regions already scanned. Related genomes share many identical
+  upstream regions, and a region upstream of a gene homologous to several references is scanned
+  once per reference; a prediction found here skips the scan and returns the very same Match.
+  Predictions are keyed by the content of the region and the fingerprint of the pattern
+  (Sigma70Definition.Fingerprint), and no prediction is kept as well as a prediction.
+  The cache holds at most -Dpromoter.cache entries (0 turns it off) in SEGMENTS segments, each
+  evicting its least recently used entry. With -Dpromoter.cache.spill=<file> evicted entries are
+  appended to that file and found there again, in this run and in later ones; a Match read back
+  is rebuilt over the region with the positions and similarities of the original. Evicted
+  entries are queued and written after the segment is released, so no lookup waits on the
+  disk. A spill file serves one process at a time: it stays locked while it is open, and a
+  second process finds it locked and runs without it*/
+
+public class PredictionCache
+{
+    private static final int MAGIC = 0x50524f4d;
+    private static final int VERSION = 2;
+    private static final int SEGMENTS = 16;
+    /*Default number of entries*/
+    public static final int ENTRIES = 1 << 14;
+    /*Stands for "no prediction" in the cache*/
+    private static final Match NONE = new Match();
+
+    private static final int entries = Integer.getInteger("promoter.cache", ENTRIES);
+    private static final Spill spill = OpenSpill(System.getProperty("promoter.cache.spill"));
+    private static final List<Map<Key, Match>> segments = Segments();
+    /*Entries evicted from a segment and not yet written to the spill*/
+    private static final ConcurrentLinkedQueue<Map.Entry<Key, Match>> evicted = new ConcurrentLinkedQueue<Map.Entry<Key, Match>>();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder spillHits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private static Spill OpenSpill(String path)
+    {
+        if (path == null || entries <= 0)
+            return null;
+        try
+        {
+            return new Spill(Paths.get(path));
+        }
+        catch (IOException e)
+        {
+            System.err.println("Prediction spill disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static List<Map<Key, Match>> Segments()
+    {
+        List<Map<Key, Match>> segments = new ArrayList<Map<Key, Match>>(SEGMENTS);
+        int capacity = Math.max(1, (entries + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++)
+            segments.add(new LinkedHashMap<Key, Match>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Match> eldest)
+                {
+                    if (size() <= capacity)
+                        return false;
+                    if (spill != null)
+                        evicted.add(eldest);
+                    return true;
+                }
+            });
+        return segments;
+    }
+
+    /*The best match of pattern in the upstream region, or null if there is none, as
+      BioPatterns.getBestMatch finds it*/
+    public static Match Predict(Series pattern, NucleotideSequence upStreamRegion)
+    {
+        if (entries <= 0)
+            return PromoterTrack.Predict(pattern, upStreamRegion);
+
+        Key key = new Key(upStreamRegion.bytes, Sigma70Definition.Fingerprint(pattern));
+        Map<Key, Match> segment = segments.get((int) (key.hash >>> 32) & (SEGMENTS - 1));
+        Match prediction;
+        synchronized (segment)
+        {
+            prediction = segment.get(key);
+        }
+        if (prediction != null)
+            hits.increment();
+        else
+        {
+            prediction = spill == null ? null : spill.Get(key, upStreamRegion);
+            if (prediction != null)
+                spillHits.increment();
+            else
+            {
+                misses.increment();
+                prediction = PromoterTrack.Predict(pattern, upStreamRegion);
+                if (prediction == null)
+                    prediction = NONE;
+            }
+            synchronized (segment)
+            {
+                segment.put(key, prediction);
+            }
+            if (spill != null)
+                for (Map.Entry<Key, Match> entry = evicted.poll(); entry != null; entry = evicted.poll())
+                    spill.Put(entry.getKey(), entry.getValue());
+        }
+        return prediction == NONE ? null : prediction;
+    }
+
+    public static String Report()
+    {
+        if (entries <= 0)
+            return "Promoter cache: off";
+        return String.format("Promoter cache: %d hits, %d from spill, %d scans", hits.sum(), spillHits.sum(), misses.sum());
+    }
+
+    /*The region is copied, so that the key does not change with the buffer it came from*/
+    private static class Key
+    {
+        final byte[] bytes;
+        final long pattern;
+        final long hash;
+
+        Key(byte[] bytes, long pattern)
+        {
+            this.bytes = bytes.clone();
+            this.pattern = pattern;
+            hash = ScoreCache.Mix(pattern ^ ScoreCache.Hash(bytes));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (int) hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return hash == other.hash && pattern == other.pattern && Arrays.equals(bytes, other.bytes);
+        }
+    }
+
+    /*Append-only file of evicted entries: a header, then per entry its 64-bit key, the region
+      and, if there is one, the prediction as start, length, strand and similarity of the whole
+      match and of each of its parts. Only the offsets of the entries are kept in memory; an
+      entry is written once, and a key found with another region is taken as a miss*/
+    private static class Spill
+    {
+        private static final int HEADER = 8;
+        /*Start, length, strand and similarity of a match*/
+        private static final int ENTRY = 4 + 4 + 4 + 8;
+
+        private final FileChannel channel;
+        private final ConcurrentHashMap<Long, Long> offsets = new ConcurrentHashMap<Long, Long>();
+        private long end;
+
+        Spill(Path path) throws IOException
+        {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // Held until the process exits, as end is only kept in memory
+            if (channel.tryLock() == null)
+            {
+                channel.close();
+                throw new IOException(path + " is in use by another process");
+            }
+            if (channel.size() == 0)
+            {
+                ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                channel.write(header, 0);
+                end = HEADER;
+                return;
+            }
+            DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16));
+            if (channel.size() < HEADER || input.readInt() != MAGIC || input.readInt() != VERSION)
+            {
+                channel.close();
+                throw new IOException(path + " is not a prediction spill of version " + VERSION);
+            }
+            end = HEADER;
+            // An entry cut short by a crash ends the index; the next entry overwrites it
+            while (end < channel.size())
+            {
+                try
+                {
+                    long key = input.readLong();
+                    int length = input.readUnsignedShort();
+                    input.skipBytes(length);
+                    int parts = input.readByte();
+                    int size = 8 + 2 + length + 1 + parts * ENTRY;
+                    if (parts < 0 || input.skipBytes(parts * ENTRY) != parts * ENTRY || end + size > channel.size())
+                        break;
+                    offsets.putIfAbsent(key, end);
+                    end += size;
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+            }
+        }
+
+        synchronized void Put(Key key, Match prediction)
+        {
+            if (offsets.containsKey(key.hash))
+                return;
+            int parts = prediction == NONE ? 0 : 1 + prediction.getSubMatchNumber();
+            ByteBuffer buffer = ByteBuffer.allocate(8 + 2 + key.bytes.length + 1 + parts * ENTRY);
+            buffer.putLong(key.hash).putShort((short) key.bytes.length).put(key.bytes).put((byte) parts);
+            if (prediction != NONE)
+            {
+                PutPart(buffer, prediction);
+                for (int i = 0; i < prediction.getSubMatchNumber(); i++)
+                    PutPart(buffer, prediction.getSubMatch(i));
+            }
+            buffer.flip();
+            try
+            {
+                long offset = end;
+                while (buffer.hasRemaining())
+                    offset += channel.write(buffer, offset);
+                offsets.put(key.hash, end);
+                end = offset;
+            }
+            catch (IOException e)
+            {
+                // The entry is only lost from the cache
+            }
+        }
+
+        private static void PutPart(ByteBuffer buffer, Match match)
+        {
+            buffer.putInt(match.start()).putInt(match.length()).putInt(match.strand()).putDouble(match.similarity());
+        }
+
+        /*The spilled prediction of the region, NONE if it has none, or null if it was not spilled*/
+        Match Get(Key key, NucleotideSequence upStreamRegion)
+        {
+            Long offset = offsets.get(key.hash);
+            if (offset == null)
+                return null;
+            try
+            {
+                ByteBuffer head = ByteBuffer.allocate(8 + 2);
+                Read(head, offset);
+                if (head.getLong() != key.hash || head.getShort() != (short) key.bytes.length)
+                    return null;
+                ByteBuffer body = ByteBuffer.allocate(key.bytes.length + 1);
+                Read(body, offset + 8 + 2);
+                byte[] bytes = new byte[key.bytes.length];
+                body.get(bytes);
+                if (!Arrays.equals(bytes, key.bytes))
+                    return null;
+                int parts = body.get();
+                if (parts == 0)
+                    return NONE;
+                ByteBuffer entries = ByteBuffer.allocate(parts * ENTRY);
+                Read(entries, offset + 8 + 2 + key.bytes.length + 1);
+                Sequence sequence = new Sequence("DNA", upStreamRegion.toString());
+                Match prediction = GetPart(entries, sequence);
+                for (int i = 1; i < parts; i++)
+                    prediction.add(GetPart(entries, sequence));
+                return prediction;
+            }
+            catch (IOException e)
+            {
+                return null;
+            }
+        }
+
+        private static Match GetPart(ByteBuffer buffer, Sequence sequence)
+        {
+            int start = buffer.getInt();
+            int length = buffer.getInt();
+            int strand = buffer.getInt();
+            return new Match(sequence, start, length, strand, buffer.getDouble());
+        }
+
+        private void Read(ByteBuffer buffer, long offset) throws IOException
+        {
+            while (buffer.hasRemaining())
+                if (channel.read(buffer, offset + buffer.position()) < 0)
+                    throw new EOFException();
+            buffer.flip();
+        }
+    }
+}
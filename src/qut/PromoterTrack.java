@@ -0,0 +1,267 @@
+package qut;
+
+import edu.au.jacobi.pattern.*;
+import edu.au.jacobi.sequence.Sequence;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.*;
+
+/*The -35 and -10 PWM scores of a genome at every position of both strands, so that the
+  promoter of any upstream region is predicted from array lookups. Upstream regions of
+  neighbouring genes overlap, and the region of a gene is predicted once per homologous
+  reference; with the track every box position is scored once per strand.
+  The scores are filled PAGE positions at a time, when a region first needs them. A
+  prediction enumerates the boxes and spacers in the order of SeriesAll, adds up the
+  similarities exactly as Match.calcSimilarity does and keeps the first best one, so it
+  returns the very Match Sequence.searchBest returns. Regions whose letters the track does not
+  score are scanned as before. -Dpromoter.track=false turns the tracks off*/
+
+public class PromoterTrack
+{
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("promoter.track", "true"));
+    private static final int PAGE = 1024;
+    /*Stands for a region with a box the track cannot score*/
+    private static final Match UNSCORED = new Match();
+
+    private static final LongAdder tracked = new LongAdder();
+    private static final LongAdder scanned = new LongAdder();
+    private static final LongAdder scored = new LongAdder();
+
+    private final byte[] forward;
+    private final Box minus35;
+    private final Box minus10;
+    private final Gap spacer;
+    private final double seriesImpact;
+    /*Pages of each strand, forward then reverse complement*/
+    private final AtomicReferenceArray<double[][]> forwardPages;
+    private final AtomicReferenceArray<double[][]> reversePages;
+
+    private PromoterTrack(Box minus35, Gap spacer, Box minus10, double seriesImpact, byte[] genome)
+    {
+        this.minus35 = minus35;
+        this.spacer = spacer;
+        this.minus10 = minus10;
+        this.seriesImpact = seriesImpact;
+        this.forward = genome;
+        int pages = (genome.length + PAGE - 1) / PAGE;
+        forwardPages = new AtomicReferenceArray<double[][]>(pages);
+        reversePages = new AtomicReferenceArray<double[][]>(pages);
+    }
+
+    /*The track of genome for pattern, or null if pattern is not a PWM, a gap and a PWM in series*/
+    static PromoterTrack Of(Series pattern, NucleotideSequence genome)
+    {
+        if (pattern.size() != 3 || !(pattern.get(0) instanceof PWM) || !(pattern.get(1) instanceof Gap) || !(pattern.get(2) instanceof PWM))
+            return null;
+        Gap spacer = (Gap) pattern.get(1);
+        if (spacer.getMinLength() < 0)
+            return null;
+        return new PromoterTrack(new Box((PWM) pattern.get(0)), spacer, new Box((PWM) pattern.get(2)), pattern.getImpact(), genome.bytes);
+    }
+
+    /*The best match of pattern in the upstream region, or null if there is none, as
+      BioPatterns.getBestMatch finds it*/
+    public static Match Predict(Series pattern, NucleotideSequence upStreamRegion)
+    {
+        if (ENABLED && upStreamRegion.genome != null)
+        {
+            PromoterTrack track = upStreamRegion.genome.Track(pattern);
+            Match prediction = track == null ? UNSCORED : track.Predict(pattern.getThreshold(), upStreamRegion);
+            if (prediction != UNSCORED)
+            {
+                tracked.increment();
+                return prediction;
+            }
+        }
+        scanned.increment();
+        return BioPatterns.getBestMatch(pattern, upStreamRegion.toString());
+    }
+
+    public static String Report()
+    {
+        if (!ENABLED)
+            return "Promoter track: off";
+        return String.format("Promoter track: %d regions from tracks, %d scanned, %d box positions scored", tracked.sum(), scanned.sum(), scored.sum());
+    }
+
+    /*The prediction of the region, or UNSCORED*/
+    private Match Predict(double threshold, NucleotideSequence region)
+    {
+        int length = region.bytes.length;
+        if (region.offset < 0 || region.offset + length > forward.length)
+            return UNSCORED;
+        int bestStart = -1;
+        int bestGap = 0;
+        double best = -1.0;
+        double bestMinus35 = 0;
+        double bestMinus10 = 0;
+        for (int start = 0; start < length; start++)
+        {
+            if (start + minus35.length > length)
+                break;
+            double score35 = Score(region.strand, region.offset + start, 0);
+            if (Double.isNaN(score35))
+                return UNSCORED;
+            if (score35 < minus35.pwm.getThreshold())
+                continue;
+            for (int gap = spacer.getMinLength(); gap <= spacer.getMaxLength(); gap++)
+            {
+                int start10 = start + minus35.length + gap;
+                if (start10 + minus10.length > length)
+                    break;
+                double score10 = Score(region.strand, region.offset + start10, 1);
+                if (Double.isNaN(score10))
+                    return UNSCORED;
+                if (score10 < minus10.pwm.getThreshold())
+                    continue;
+                double similarity = Similarity(score35, spacer.getGapSim(gap - spacer.getMinLength()), score10);
+                if (similarity >= threshold && similarity > best)
+                {
+                    best = similarity;
+                    bestStart = start;
+                    bestGap = gap;
+                    bestMinus35 = score35;
+                    bestMinus10 = score10;
+                }
+            }
+        }
+        if (bestStart < 0)
+            return null;
+
+        Sequence sequence = new Sequence("DNA", region.toString());
+        int start10 = bestStart + minus35.length + bestGap;
+        Match match = new Match(sequence, bestStart + 1, start10 + minus10.length - bestStart, sequence.strand(), best);
+        match.setImpact(seriesImpact);
+        match.add(Part(sequence, bestStart, minus35.length, bestMinus35, minus35.pwm.getImpact()));
+        match.add(Part(sequence, bestStart + minus35.length, bestGap, spacer.getGapSim(bestGap - spacer.getMinLength()), spacer.getImpact()));
+        match.add(Part(sequence, start10, minus10.length, bestMinus10, minus10.pwm.getImpact()));
+        return match;
+    }
+
+    private static Match Part(Sequence sequence, int start, int length, double similarity, double impact)
+    {
+        Match part = new Match(sequence, start + 1, length, sequence.strand(), similarity);
+        part.setImpact(impact);
+        return part;
+    }
+
+    /*Match.calcSimilarity of the three parts*/
+    private double Similarity(double score35, double gapSimilarity, double score10)
+    {
+        double sum = 0.0;
+        double weights = 0.0;
+        sum += score35 * minus35.pwm.getImpact();
+        weights += minus35.pwm.getImpact();
+        sum += gapSimilarity * spacer.getImpact();
+        weights += spacer.getImpact();
+        sum += score10 * minus10.pwm.getImpact();
+        weights += minus10.pwm.getImpact();
+        return weights > 0 ? sum / weights : 0.0;
+    }
+
+    /*Score of the box (0 for -35, 1 for -10) at position of the strand, NaN if one of its
+      letters is not scored or it runs off the genome*/
+    private double Score(int strand, int position, int box)
+    {
+        AtomicReferenceArray<double[][]> pages = strand == 1 ? forwardPages : reversePages;
+        int index = position / PAGE;
+        double[][] page = pages.get(index);
+        if (page == null)
+        {
+            page = Fill(strand, index);
+            if (!pages.compareAndSet(index, null, page))
+                page = pages.get(index);
+        }
+        return page[box][position % PAGE];
+    }
+
+    private double[][] Fill(int strand, int index)
+    {
+        int from = index * PAGE;
+        int to = Math.min(from + PAGE, forward.length);
+        double[][] page = new double[2][PAGE];
+        for (int position = from; position < to; position++)
+        {
+            page[0][position - from] = minus35.Score(forward, strand, position);
+            page[1][position - from] = minus10.Score(forward, strand, position);
+        }
+        scored.add(to - from);
+        return page;
+    }
+
+    /*A PWM with the weight of each letter at each column, and the minimum and range of its
+      scores summed as PWM does*/
+    private static class Box
+    {
+        final PWM pwm;
+        final int length;
+        /*weights[column][letter], NaN for a letter the track does not score*/
+        final double[][] weights;
+        final double minScore;
+        final double rangeScore;
+
+        Box(PWM pwm)
+        {
+            this.pwm = pwm;
+            length = pwm.length();
+            weights = new double[length][128];
+            double maxScore = 0;
+            double minScore = 0;
+            for (int column = 0; column < length; column++)
+            {
+                double max = Double.NEGATIVE_INFINITY;
+                double min = Double.POSITIVE_INFINITY;
+                for (Iterator<?> symbols = pwm.symbolIterator(); symbols.hasNext(); )
+                {
+                    double weight = pwm.get((edu.au.jacobi.symbol.Symbol) symbols.next(), column);
+                    max = Math.max(max, weight);
+                    min = Math.min(min, weight);
+                }
+                maxScore += max;
+                minScore += min;
+                for (int letter = 0; letter < 128; letter++)
+                    weights[column][letter] = Weight(pwm, (char) letter, column);
+            }
+            this.minScore = minScore;
+            this.rangeScore = maxScore - minScore == 0 ? 1 : maxScore - minScore;
+        }
+
+        /*The weight PWM.match gives letter, NaN if a Sequence cannot hold it*/
+        private static double Weight(PWM pwm, char letter, int column)
+        {
+            try
+            {
+                new Sequence("DNA", String.valueOf(letter));
+                return pwm.get(letter, column);
+            }
+            catch (RuntimeException e)
+            {
+                return Double.NaN;
+            }
+        }
+
+        /*PWM.match at position of the strand; the reverse strand is read as the complement of the
+          genome from its end, as GetUpstreamRegion reads it*/
+        double Score(byte[] genome, int strand, int position)
+        {
+            if (position + length > genome.length)
+                return Double.NaN;
+            double sim = 0;
+            for (int i = 0; i < length; i++)
+            {
+                int letter;
+                if (strand == 1)
+                    letter = genome[position + i];
+                else
+                {
+                    int base = genome[genome.length - 1 - position - i];
+                    letter = base >= 0 && base < NucleotideSequence.complement.length ? NucleotideSequence.complement[base] : -1;
+                }
+                if (letter < 0 || letter >= 128)
+                    return Double.NaN;
+                sim += weights[i][letter];
+            }
+            return (sim - minScore) / rangeScore;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package qut;
+
+import java.io.*;
+import java.util.*;
+
+/*Rebuilds the consensus for another homology cutoff from the ScoreTable written by a run
+  with -Dscores.file, without aligning or predicting again.
+  Usage: Rethreshold <score table> [cutoff]*/
+
+public class Rethreshold
+{
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: Rethreshold <score table> [cutoff]");
+            return;
+        }
+        float cutoff = args.length > 1 ? Float.parseFloat(args[1]) : Homology.CUTOFF;
+        Map<String, Sigma70Consensus> consensus = ScoreTable.Consensus(args[0], cutoff);
+        for (Map.Entry<String, Sigma70Consensus> entry : consensus.entrySet())
+            System.out.println(entry.getKey() + " " + entry.getValue());
+    }
+}
@@ -0,0 +1,195 @@
+package qut;
+
+import jaligner.matrix.*;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/*Alignment scores kept in a memory-mapped file between runs. The file is an open-addressing
+  hash table of at most MAX_SLOTS SLOT-byte slots after a HEADER-byte header; a slot holds a
+  64-bit key and the score with a 31-bit check. The key hashes the content of the reference and
+  of the peptide together with the matrix and gap penalties, so one file can serve several
+  scoring schemes, and a renamed or re-parsed gene still finds its score. The check is another
+  hash of the same, so a pair whose key collides with a cached one is told apart and missed.
+  Readers take no lock. A writer claims an empty slot by compare-and-set of its key and then
+  publishes the score, so concurrent writers, in this process or in others mapping the same
+  file, never overwrite each other, and a reader sees either no score or the whole score.
+  A key is probed over at most PROBES slots; when they are all taken the score is simply not
+  cached. The file holds native-order values and is not meant to move between machines*/
+
+public class ScoreCache
+{
+    private static final int MAGIC = 0x484f4d43;
+    private static final int VERSION = 2;
+    private static final int HEADER = 64;
+    private static final int SLOT = 16;
+    private static final int PROBES = 64;
+    /*Default number of slots, 64 MB of file*/
+    public static final int SLOTS = 1 << 22;
+    /*Most slots a file can have, as it is mapped as one buffer*/
+    public static final int MAX_SLOTS = 1 << 26;
+    private static final long CHECK = 0x7fffffffL;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final long parameters;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /*Opens the cache at path, creating it with the given number of slots (rounded up to a power
+      of two, from 1 to MAX_SLOTS) if it does not exist yet; an existing cache keeps its own size*/
+    public ScoreCache(Path path, int slots, Matrix matrix, float open, float extend) throws IOException
+    {
+        if (slots < 1 || slots > MAX_SLOTS)
+            throw new IOException(slots + " slots is not between 1 and " + MAX_SLOTS);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            // The lock only covers opening, so that a process never sees a cache another one is creating
+            FileLock lock = channel.lock();
+            try
+            {
+                if (channel.size() < HEADER)
+                {
+                    this.slots = Integer.highestOneBit(Math.max(2, slots - 1)) << 1;
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) this.slots * SLOT);
+                    buffer.order(ByteOrder.nativeOrder());
+                    buffer.putInt(4, VERSION);
+                    buffer.putInt(8, this.slots);
+                    buffer.putInt(0, MAGIC);
+                }
+                else
+                {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.nativeOrder());
+                    channel.read(header, 0);
+                    if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                        throw new IOException(path + " is not a score cache of version " + VERSION);
+                    this.slots = header.getInt(8);
+                    if (this.slots <= 0 || this.slots > MAX_SLOTS || Integer.bitCount(this.slots) != 1 || channel.size() < HEADER + (long) this.slots * SLOT)
+                        throw new IOException(path + " is truncated");
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) this.slots * SLOT);
+                    buffer.order(ByteOrder.nativeOrder());
+                }
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+        parameters = Parameters(matrix, open, extend);
+    }
+
+    /*The cached score of peptide A against reference B, or NaN if there is none*/
+    public float Get(PeptideSequence A, PeptideSequence B)
+    {
+        long key = Key(A, B);
+        for (int probe = 0; probe < PROBES; probe++)
+        {
+            int offset = Offset(key, probe);
+            long found = (long) LONGS.getAcquire(buffer, offset);
+            if (found == 0)
+                break;
+            if (found == key)
+            {
+                long value = (long) LONGS.getAcquire(buffer, offset + 8);
+                if (value == 0 || ((value >>> 1) & CHECK) != (Check(A, B) & CHECK))
+                    break;
+                hits.increment();
+                return Float.intBitsToFloat((int) (value >>> 32));
+            }
+        }
+        misses.increment();
+        return Float.NaN;
+    }
+
+    public void Put(PeptideSequence A, PeptideSequence B, float score)
+    {
+        long key = Key(A, B);
+        long value = ((long) Float.floatToRawIntBits(score) << 32) | ((Check(A, B) & CHECK) << 1) | 1;
+        for (int probe = 0; probe < PROBES; probe++)
+        {
+            int offset = Offset(key, probe);
+            long found = (long) LONGS.getAcquire(buffer, offset);
+            if (found == 0)
+            {
+                if (LONGS.compareAndSet(buffer, offset, 0L, key))
+                {
+                    LONGS.setRelease(buffer, offset + 8, value);
+                    return;
+                }
+                found = (long) LONGS.getAcquire(buffer, offset);
+            }
+            if (found == key)
+                return;
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    private int Offset(long key, int probe)
+    {
+        return HEADER + (int) ((key + probe) & (slots - 1)) * SLOT;
+    }
+
+    private long Key(PeptideSequence A, PeptideSequence B)
+    {
+        long key = Mix(Mix(parameters ^ Hash(B.bytes)) ^ Hash(A.bytes));
+        return key == 0 ? 1 : key;
+    }
+
+    /*A hash of the pair computed apart from Key, by another function over the same content, so
+      that two pairs sharing a key rarely share a check as well*/
+    private long Check(PeptideSequence A, PeptideSequence B)
+    {
+        long hash = Mix(~parameters);
+        for (byte b : B.bytes)
+            hash = hash * 0x9e3779b97f4a7c15L + (b & 0xff);
+        hash = Mix(hash ^ B.bytes.length);
+        for (byte b : A.bytes)
+            hash = hash * 0x9e3779b97f4a7c15L + (b & 0xff);
+        return Mix(hash ^ A.bytes.length);
+    }
+
+    /*Fingerprint of the scoring scheme: the matrix id and scores and the gap penalties*/
+    private static long Parameters(Matrix matrix, float open, float extend)
+    {
+        long hash = Hash(matrix.getId().getBytes());
+        for (float[] row : matrix.getScores())
+            for (float score : row)
+                hash = Mix(hash ^ Float.floatToIntBits(score));
+        hash = Mix(hash ^ Float.floatToIntBits(open));
+        return Mix(hash ^ Float.floatToIntBits(extend));
+    }
+
+    /*64-bit FNV-1a*/
+    static long Hash(byte[] bytes)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes)
+        {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /*Finalizer of SplitMix64*/
+    static long Mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,131 @@
+package qut;
+
+import edu.au.jacobi.pattern.*;
+
+import java.io.*;
+import java.util.*;
+
+/*Every reference-by-gene score of a run, with the promoter prediction of every gene, so the
+  consensus can be rebuilt for any cutoff without aligning or predicting again (Rethreshold).
+  The file is a header with the reference names, then one block per GenBank record. A block
+  is stored column by column: the gene count, a flag per gene telling whether a promoter was
+  predicted, the spacer lengths, the -35 boxes and the -10 boxes (BOX bytes each, padded with
+  zeros), then one column of scores per reference, in the order of the header*/
+
+public class ScoreTable
+{
+    private static final int MAGIC = 0x53434f52;
+    private static final int VERSION = 1;
+    /*Length of the -35 and -10 boxes of Sigma70Definition*/
+    private static final int BOX = 6;
+
+    public static class Writer implements Closeable
+    {
+        private final DataOutputStream output;
+        private final int references;
+
+        public Writer(String file, List<Gene> referenceGenes) throws IOException
+        {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            references = referenceGenes.size();
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(references);
+            for (Gene referenceGene : referenceGenes)
+                output.writeUTF(referenceGene.name);
+        }
+
+        /*Writes the block of one record: the prediction of each gene, null if there is none,
+          and scores[reference][gene]*/
+        public void Write(Match[] predictions, float[][] scores) throws IOException
+        {
+            int genes = predictions.length;
+            if (genes == 0)
+                return;
+            output.writeInt(genes);
+            for (Match prediction : predictions)
+                output.writeBoolean(prediction != null);
+            for (Match prediction : predictions)
+                output.writeShort(prediction == null ? 0 : prediction.getSubMatch(1).calcLength());
+            for (Match prediction : predictions)
+                WriteBox(prediction == null ? "" : prediction.getSubMatch(0).letters());
+            for (Match prediction : predictions)
+                WriteBox(prediction == null ? "" : prediction.getSubMatch(2).letters());
+            for (int reference = 0; reference < references; reference++)
+                for (int gene = 0; gene < genes; gene++)
+                    output.writeFloat(scores[reference][gene]);
+        }
+
+        private void WriteBox(String letters) throws IOException
+        {
+            byte[] box = new byte[BOX];
+            System.arraycopy(letters.getBytes(), 0, box, 0, Math.min(BOX, letters.length()));
+            output.write(box);
+        }
+
+        public void close() throws IOException
+        {
+            output.close();
+        }
+    }
+
+    /*Rebuilds the consensus of each reference, and of all of them, for the given cutoff*/
+    public static Map<String, Sigma70Consensus> Consensus(String file, float cutoff) throws IOException
+    {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16)))
+        {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION)
+                throw new IOException(file + " is not a score table of version " + VERSION);
+            String[] names = new String[input.readInt()];
+            HashMap<String, Sigma70Consensus> consensus = new HashMap<String, Sigma70Consensus>();
+            for (int reference = 0; reference < names.length; reference++)
+            {
+                names[reference] = input.readUTF();
+                consensus.put(names[reference], new Sigma70Consensus());
+            }
+            consensus.put("all", new Sigma70Consensus());
+
+            while (true)
+            {
+                int genes;
+                try
+                {
+                    genes = input.readInt();
+                }
+                catch (EOFException e)
+                {
+                    return consensus;
+                }
+                boolean[] predicted = new boolean[genes];
+                int[] gaps = new int[genes];
+                byte[][] _35 = new byte[genes][];
+                byte[][] _10 = new byte[genes][];
+                for (int gene = 0; gene < genes; gene++)
+                    predicted[gene] = input.readBoolean();
+                for (int gene = 0; gene < genes; gene++)
+                    gaps[gene] = input.readShort();
+                for (int gene = 0; gene < genes; gene++)
+                    _35[gene] = ReadBox(input);
+                for (int gene = 0; gene < genes; gene++)
+                    _10[gene] = ReadBox(input);
+                for (int reference = 0; reference < names.length; reference++)
+                    for (int gene = 0; gene < genes; gene++)
+                        if (input.readFloat() >= cutoff && predicted[gene])
+                        {
+                            consensus.get(names[reference]).addPrediction(_35[gene], gaps[gene], _10[gene]);
+                            consensus.get("all").addPrediction(_35[gene], gaps[gene], _10[gene]);
+                        }
+            }
+        }
+    }
+
+    private static byte[] ReadBox(DataInputStream input) throws IOException
+    {
+        byte[] box = new byte[BOX];
+        input.readFully(box);
+        int length = 0;
+        while (length < BOX && box[length] != 0)
+            length++;
+        return Arrays.copyOf(box, length);
+    }
+}
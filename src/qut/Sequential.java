@@ -7,14 +7,21 @@ import jaligner.matrix.*;
 import edu.au.jacobi.pattern.*;
 import java.io.*;
 import java.util.*;
+import java.util.stream.Stream;
 import java.io.FileWriter;
 
 public class Sequential
 {
     private static HashMap<String, Sigma70Consensus> consensus = new HashMap<String, Sigma70Consensus>();
     private static Series sigma70_pattern = Sigma70Definition.getSeriesAll_Unanchored(0.7);
-    private static final Matrix BLOSUM_62 = BLOSUM62.Load();
     private static byte[] complement = new byte['z'];
+    /*With -Dscores.file=<file>, every score and prediction of the run is kept in a ScoreTable,
+      from which Rethreshold rebuilds the consensus for any cutoff*/
+    private static final String SCORES = System.getProperty("scores.file");
+    /*With -Dcheckpoint.dir=<dir>, the consensus of each file is kept in Checkpoints, and a rerun
+      merges it instead of processing the file again. Not used with a score table, which needs
+      the scores of every file*/
+    private static final String CHECKPOINTS = System.getProperty("checkpoint.dir");
 
     static
     {
@@ -35,17 +42,21 @@ public class Sequential
             if (name == null)
                 break;
             String sequence = reader.readLine();
-            referenceGenes.add(new Gene(name, 0, 0, sequence));
+            Gene referenceGene = new Gene(name, 0, 0, sequence);
+            Homology.CompileProfile(referenceGene.sequence);
+            referenceGenes.add(referenceGene);
             consensus.put(name, new Sigma70Consensus());
         }
         consensus.put("all", new Sigma70Consensus());
         reader.close();
+        Homology.Tune(referenceGenes);
+        Translations.Begin(referenceGenes);
         return referenceGenes;
     }
 
     private static boolean Homologous(PeptideSequence A, PeptideSequence B)
     {
-        return SmithWatermanGotoh.align(new Sequence(A.toString()), new Sequence(B.toString()), BLOSUM_62, 10f, 0.5f).calculateScore() >= 60;
+        return Homology.Homologous(A, B);
     }
 
     private static NucleotideSequence GetUpstreamRegion(NucleotideSequence dna, Gene gene)
@@ -54,21 +65,22 @@ public class Sequential
         if (gene.location < upStreamDistance)
             upStreamDistance = gene.location-1;
 
+        int offset = gene.location-upStreamDistance-1;
         if (gene.strand == 1)
-            return new NucleotideSequence(java.util.Arrays.copyOfRange(dna.bytes, gene.location-upStreamDistance-1, gene.location-1));
+            return new NucleotideSequence(java.util.Arrays.copyOfRange(dna.bytes, offset, gene.location-1), dna, gene.strand, offset);
         else
         {
             byte[] result = new byte[upStreamDistance];
             int reverseStart = dna.bytes.length - gene.location + upStreamDistance;
             for (int i=0; i<upStreamDistance; i++)
                 result[i] = complement[dna.bytes[reverseStart-i]];
-            return new NucleotideSequence(result);
+            return new NucleotideSequence(result, dna, gene.strand, offset);
         }
     }
 
     private static Match PredictPromoter(NucleotideSequence upStreamRegion)
     {
-        return BioPatterns.getBestMatch(sigma70_pattern, upStreamRegion.toString());
+        return PredictionCache.Predict(sigma70_pattern, upStreamRegion);
     }
 
     private static void ProcessDir(List<String> list, File dir)
@@ -88,41 +100,122 @@ public class Sequential
         return list;
     }
 
-    private static GenbankRecord Parse(String file) throws IOException
+    /*Adds the predictions of the genes of record homologous to each reference to partial*/
+    private static void ProcessRecord(GenbankRecord record, List<Gene> referenceGenes, Map<String, Sigma70Consensus> partial)
     {
-        GenbankRecord record = new GenbankRecord();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-        record.Parse(reader);
-        reader.close();
-        return record;
+        for (Gene referenceGene : referenceGenes)
+        {
+            System.out.println(referenceGene.name);
+            for (Gene gene : record.genes)
+                if (Homologous(gene.sequence, referenceGene.sequence))
+                {
+                    NucleotideSequence upStreamRegion = GetUpstreamRegion(record.nucleotides, gene);
+                    Match prediction = PredictPromoter(upStreamRegion);
+                    if (prediction != null)
+                    {
+                        partial.get(referenceGene.name).addMatch(prediction);
+                        partial.get("all").addMatch(prediction);
+                    }
+                }
+        }
+    }
+
+    /*Scores every gene against every reference and predicts the promoter of every gene, then
+      adds the homologous ones to the consensus and writes it all to the score table*/
+    private static void ScoreRecord(GenbankRecord record, List<Gene> referenceGenes, ScoreTable.Writer table) throws IOException
+    {
+        Match[] predictions = new Match[record.genes.size()];
+        List<PeptideSequence> genes = new ArrayList<PeptideSequence>(record.genes.size());
+        for (int i = 0; i < predictions.length; i++)
+        {
+            Gene gene = record.genes.get(i);
+            predictions[i] = PredictPromoter(GetUpstreamRegion(record.nucleotides, gene));
+            genes.add(gene.sequence);
+        }
+        float[][] scores = new float[referenceGenes.size()][];
+        for (int r = 0; r < scores.length; r++)
+        {
+            Gene referenceGene = referenceGenes.get(r);
+            System.out.println(referenceGene.name);
+            scores[r] = Homology.Similarity(genes, referenceGene.sequence);
+            for (int i = 0; i < predictions.length; i++)
+                if (scores[r][i] >= Homology.CUTOFF && predictions[i] != null)
+                {
+                    consensus.get(referenceGene.name).addMatch(predictions[i]);
+                    consensus.get("all").addMatch(predictions[i]);
+                }
+        }
+        table.Write(predictions, scores);
+    }
+
+    /*Everything the consensus of a file depends on besides its content*/
+    private static String Parameters(String referenceFile) throws IOException
+    {
+        return Homology.Parameters() + " references " + Checkpoints.Hash(referenceFile) + " promoters " + Long.toHexString(Sigma70Definition.Fingerprint(sigma70_pattern));
+    }
+
+    private static HashMap<String, Sigma70Consensus> Partial(List<Gene> referenceGenes)
+    {
+        HashMap<String, Sigma70Consensus> partial = new HashMap<String, Sigma70Consensus>();
+        for (Gene referenceGene : referenceGenes)
+            partial.put(referenceGene.name, new Sigma70Consensus());
+        partial.put("all", new Sigma70Consensus());
+        return partial;
+    }
+
+    private static void Merge(Map<String, Sigma70Consensus> partial)
+    {
+        for (Map.Entry<String, Sigma70Consensus> entry : partial.entrySet())
+            consensus.get(entry.getKey()).addConsensus(entry.getValue());
     }
 
     public static void run(String referenceFile, String dir) throws FileNotFoundException, IOException
     {
         List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
         long start = System.currentTimeMillis();
+        ScoreTable.Writer table = SCORES == null ? null : new ScoreTable.Writer(SCORES, referenceGenes);
+        Checkpoints checkpoints = CHECKPOINTS == null || table != null ? null : new Checkpoints(CHECKPOINTS, Parameters(referenceFile));
         for (String filename : ListGenbankFiles(dir))
         {
             System.out.println(filename);
-            GenbankRecord record = Parse(filename);
-            for (Gene referenceGene : referenceGenes)
+            String key = checkpoints == null ? null : checkpoints.Key(filename);
+            Map<String, Sigma70Consensus> stored = key == null ? null : checkpoints.Load(key);
+            if (stored != null)
             {
-                System.out.println(referenceGene.name);
-                for (Gene gene : record.genes)
-                    if (Homologous(gene.sequence, referenceGene.sequence))
-                    {
-                        NucleotideSequence upStreamRegion = GetUpstreamRegion(record.nucleotides, gene);
-                        Match prediction = PredictPromoter(upStreamRegion);
-                        if (prediction != null)
-                        {
-                            consensus.get(referenceGene.name).addMatch(prediction);
-                            consensus.get("all").addMatch(prediction);
-                        }
-                    }
+                Merge(stored);
+                continue;
+            }
+            // The records of a file are parsed one at a time, as they are reached
+            HashMap<String, Sigma70Consensus> partial = Partial(referenceGenes);
+            try (Stream<GenbankRecord> records = GenbankRecords.Stream(filename))
+            {
+                Iterator<GenbankRecord> iterator = records.iterator();
+                while (iterator.hasNext())
+                    if (table != null)
+                        ScoreRecord(iterator.next(), referenceGenes, table);
+                    else
+                        ProcessRecord(iterator.next(), referenceGenes, partial);
             }
+            if (table != null)
+                continue;
+            Merge(partial);
+            if (checkpoints != null)
+                checkpoints.Store(key, partial);
         }
+        if (table != null)
+            table.close();
+        Translations.End();
         long end = System.currentTimeMillis();
         System.out.println(String.format("Run for: %s seconds", (end - start) / 1000));
+        System.out.println(Homology.PrefilterReport());
+        System.out.println(Homology.DedupeReport());
+        System.out.println(Homology.CacheReport());
+        System.out.println(Homology.EngineReport());
+        System.out.println(Homology.ApproximateReport());
+        System.out.println(PredictionCache.Report());
+        System.out.println(PromoterTrack.Report());
+        if (checkpoints != null)
+            System.out.println(checkpoints.Report());
 
         for (Map.Entry<String, Sigma70Consensus> entry : consensus.entrySet())
             System.out.println(entry.getKey() + " " + entry.getValue());
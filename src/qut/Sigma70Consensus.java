@@ -44,11 +44,17 @@ public class Sigma70Consensus
 
     public void addMatch(Match match)
     {
-        predictions += 1;
-        gapTotal += match.getSubMatch(1).calcLength();
-        add_10Sequence(match.getSubMatch(2).letters().getBytes());
-        add_35Sequence(match.getSubMatch(0).letters().getBytes());
+        addPrediction(match.getSubMatch(0).letters().getBytes(), match.getSubMatch(1).calcLength(), match.getSubMatch(2).letters().getBytes());
     }    
+
+    /*Adds a prediction given by its -35 box, spacer length and -10 box, as kept by ScoreTable*/
+    public void addPrediction(byte[] _35Sequence, int gap, byte[] _10Sequence)
+    {
+        predictions += 1;
+        gapTotal += gap;
+        add_10Sequence(_10Sequence);
+        add_35Sequence(_35Sequence);
+    }
     
     public void set(Match match)
     {
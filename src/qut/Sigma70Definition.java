@@ -2,9 +2,15 @@ package qut;
 
 import edu.au.jacobi.alphabet.*;
 import edu.au.jacobi.pattern.*;
+import edu.au.jacobi.symbol.Symbol;
+
+import java.util.*;
 
 public class Sigma70Definition 
 {
+    /*Fingerprints of the patterns asked for so far, so a pattern is only walked once*/
+    private static final Map<Series, Long> fingerprints = Collections.synchronizedMap(new WeakHashMap<Series, Long>());
+
     private static PWM getMinus10Pwm()
     {
         Alphabet alphabet = AlphabetDNA.instance();
@@ -42,5 +48,64 @@ public class Sigma70Definition
         series.add(spacer);
         series.add(pwmM10);
         return series;
-    }   	    
+    }
+
+    /*A fingerprint of everything a prediction with pattern depends on: the kind, threshold and
+      impact of the series and of each of its parts, the weights of each PWM and the range and
+      similarities of each gap. Cached predictions and checkpoints are keyed by it, so an edit
+      to the definition above is never served predictions made with the old one*/
+    public static long Fingerprint(Series pattern)
+    {
+        Long fingerprint = fingerprints.get(pattern);
+        if (fingerprint == null)
+        {
+            long hash = Part(ScoreCache.Hash(pattern.getClass().getName().getBytes()), pattern);
+            for (int i = 0; i < pattern.size(); i++)
+            {
+                IPattern part = pattern.get(i);
+                hash = Part(ScoreCache.Mix(hash ^ ScoreCache.Hash(part.getClass().getName().getBytes())), part);
+                if (part instanceof PWM)
+                    hash = Weights(hash, (PWM) part);
+                else if (part instanceof Gap)
+                {
+                    Gap gap = (Gap) part;
+                    hash = Mix(Mix(hash, gap.getMinLength()), gap.getMaxLength());
+                    for (int length = 0; length <= gap.getMaxLength() - gap.getMinLength(); length++)
+                        hash = Mix(hash, Double.doubleToLongBits(gap.getGapSim(length)));
+                }
+                else
+                    hash = ScoreCache.Mix(hash ^ ScoreCache.Hash(part.toString().getBytes()));
+            }
+            fingerprint = hash;
+            fingerprints.put(pattern, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private static long Part(long hash, IPattern part)
+    {
+        return Mix(Mix(hash, Double.doubleToLongBits(part.getThreshold())), Double.doubleToLongBits(part.getImpact()));
+    }
+
+    /*The weights of each letter, in the order of the letters, column by column*/
+    private static long Weights(long hash, PWM pwm)
+    {
+        List<Symbol> symbols = new ArrayList<Symbol>();
+        for (Iterator<?> iterator = pwm.symbolIterator(); iterator.hasNext(); )
+            symbols.add((Symbol) iterator.next());
+        symbols.sort(Comparator.comparing(Symbol::letter));
+        hash = Mix(hash, pwm.length());
+        for (Symbol symbol : symbols)
+        {
+            hash = Mix(hash, symbol.letter());
+            for (int column = 0; column < pwm.length(); column++)
+                hash = Mix(hash, Double.doubleToLongBits(pwm.get(symbol, column)));
+        }
+        return hash;
+    }
+
+    private static long Mix(long hash, long value)
+    {
+        return ScoreCache.Mix(hash ^ value);
+    }
 }
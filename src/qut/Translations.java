@@ -0,0 +1,91 @@
+package qut;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.*;
+
+/*The distinct translations of one run and the homology decision of each against each
+  reference of the run. Begin starts a run once its reference genes are loaded, and End drops
+  it with every peptide and decision it holds, so nothing is kept from one run to the next.
+  A decision is kept on the interned peptide, in a slot per reference index, so it holds no
+  reference peptide. Peptides made outside a run, or in an earlier one, are not shared and
+  their decisions are not kept*/
+
+public class Translations
+{
+    private static final AtomicLong runs = new AtomicLong();
+    private static final LongAdder distinct = new LongAdder();
+    private static volatile Translations current;
+
+    private final long id = runs.incrementAndGet();
+    private final ConcurrentHashMap<String, PeptideSequence> interned = new ConcurrentHashMap<String, PeptideSequence>();
+    /*Index of each reference peptide of the run, never changed once the run has begun*/
+    private final IdentityHashMap<PeptideSequence, Integer> references = new IdentityHashMap<PeptideSequence, Integer>();
+
+    private Translations(List<Gene> referenceGenes)
+    {
+        for (Gene referenceGene : referenceGenes)
+            references.putIfAbsent(referenceGene.sequence, references.size());
+    }
+
+    /*Starts a run against referenceGenes, dropping any run before it*/
+    public static void Begin(List<Gene> referenceGenes)
+    {
+        current = new Translations(referenceGenes);
+    }
+
+    public static void End()
+    {
+        current = null;
+    }
+
+    /*The peptide of a translation, shared with every earlier gene of the run with the same
+      translation, so the homology of each distinct peptide is only tested once per reference*/
+    static PeptideSequence Intern(String string)
+    {
+        Translations run = current;
+        if (run == null)
+            return new PeptideSequence(string);
+        return run.interned.computeIfAbsent(string, translation ->
+        {
+            PeptideSequence peptide = new PeptideSequence(translation);
+            peptide.run = run.id;
+            peptide.decisions = new byte[run.references.size()];
+            distinct.increment();
+            return peptide;
+        });
+    }
+
+    /*The decision for A against the reference B taken earlier in the run, or null*/
+    static Boolean Known(PeptideSequence A, PeptideSequence B)
+    {
+        int index = Index(A, B);
+        if (index < 0 || A.decisions[index] == 0)
+            return null;
+        return A.decisions[index] == 2;
+    }
+
+    /*Keeps the decision for A against the reference B, if both belong to the run. A slot is
+      a single byte, so a thread that does not see another's write yet only tests again*/
+    static void Remember(PeptideSequence A, PeptideSequence B, boolean decision)
+    {
+        int index = Index(A, B);
+        if (index >= 0)
+            A.decisions[index] = (byte) (decision ? 2 : 1);
+    }
+
+    private static int Index(PeptideSequence A, PeptideSequence B)
+    {
+        Translations run = current;
+        if (run == null || A.run != run.id)
+            return -1;
+        Integer index = run.references.get(B);
+        return index == null ? -1 : index;
+    }
+
+    /*Number of distinct translations interned by every run so far*/
+    public static long Distinct()
+    {
+        return distinct.sum();
+    }
+}
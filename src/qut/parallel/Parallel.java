@@ -9,15 +9,19 @@ import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.*;
 
 
 public class Parallel
 {
     private static HashMap<String, Sigma70Consensus> consensus = new HashMap<String, Sigma70Consensus>();
     private static final ThreadLocal<Series> sigma70_pattern = ThreadLocal.withInitial(() ->Sigma70Definition.getSeriesAll_Unanchored(0.7));
-    private static final Matrix BLOSUM_62 = BLOSUM62.Load();
     private static byte[] complement = new byte['z'];
     private static ReentrantLock lock = new ReentrantLock();
+    /*With -Dcheckpoint.dir=<dir>, the consensus of each file is kept in Checkpoints, and a rerun
+      merges it instead of processing the file again*/
+    private static final String CHECKPOINTS = System.getProperty("checkpoint.dir");
     public static String version = null;
 
     static
@@ -42,17 +46,21 @@ public class Parallel
             if (name == null)
                 break;
             String sequence = reader.readLine();
-            referenceGenes.add(new Gene(name, 0, 0, sequence));
+            Gene referenceGene = new Gene(name, 0, 0, sequence);
+            Homology.CompileProfile(referenceGene.sequence);
+            referenceGenes.add(referenceGene);
             consensus.put(name, new Sigma70Consensus());
         }
         consensus.put("all", new Sigma70Consensus());
         reader.close();
+        Homology.Tune(referenceGenes);
+        Translations.Begin(referenceGenes);
         return referenceGenes;
     }
 
     private static boolean Homologous(PeptideSequence A, PeptideSequence B)
     {
-        return SmithWatermanGotoh.align(new Sequence(A.toString()), new Sequence(B.toString()), BLOSUM_62, 10f, 0.5f).calculateScore() >= 60;
+        return Homology.Homologous(A, B);
     }
 
     private static NucleotideSequence GetUpstreamRegion(NucleotideSequence dna, Gene gene)
@@ -61,21 +69,22 @@ public class Parallel
         if (gene.location < upStreamDistance)
             upStreamDistance = gene.location-1;
 
+        int offset = gene.location-upStreamDistance-1;
         if (gene.strand == 1)
-            return new NucleotideSequence(java.util.Arrays.copyOfRange(dna.bytes, gene.location-upStreamDistance-1, gene.location-1));
+            return new NucleotideSequence(java.util.Arrays.copyOfRange(dna.bytes, offset, gene.location-1), dna, gene.strand, offset);
         else
         {
             byte[] result = new byte[upStreamDistance];
             int reverseStart = dna.bytes.length - gene.location + upStreamDistance;
             for (int i=0; i<upStreamDistance; i++)
                 result[i] = complement[dna.bytes[reverseStart-i]];
-            return new NucleotideSequence(result);
+            return new NucleotideSequence(result, dna, gene.strand, offset);
         }
     }
 
     private static Match PredictPromoter(NucleotideSequence upStreamRegion)
     {
-        return BioPatterns.getBestMatch(sigma70_pattern.get(), upStreamRegion.toString());
+        return PredictionCache.Predict(sigma70_pattern.get(), upStreamRegion);
     }
 
     private static void ProcessDir(List<String> list, File dir)
@@ -95,82 +104,151 @@ public class Parallel
         return list;
     }
 
-    private static GenbankRecord Parse(String file) throws IOException
+    /*Hands each record of each file under dir to process, in order, while the records after it
+      are parsed in parallel (GenbankRecords.Parallel), so a file is never loaded whole. process
+      adds the predictions of the record to the partial consensus of its file, which is merged
+      into the run once the file is done and, with -Dcheckpoint.dir, kept in Checkpoints; a file
+      with a checkpoint is merged from it instead of being processed again*/
+    private static void ProcessRecords(String referenceFile, List<Gene> referenceGenes, String dir, BiConsumer<GenbankRecord, Map<String, Sigma70Consensus>> process) throws IOException
     {
-        GenbankRecord record = new GenbankRecord();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-        record.Parse(reader);
-        reader.close();
-        return record;
+        Checkpoints checkpoints = CHECKPOINTS == null ? null : new Checkpoints(CHECKPOINTS, Parameters(referenceFile));
+        for (String filename : ListGenbankFiles(dir))
+        {
+            System.out.println(filename);
+            String key = checkpoints == null ? null : checkpoints.Key(filename);
+            Map<String, Sigma70Consensus> stored = key == null ? null : checkpoints.Load(key);
+            if (stored != null)
+            {
+                Merge(stored);
+                continue;
+            }
+            HashMap<String, Sigma70Consensus> partial = Partial(referenceGenes);
+            try (Stream<GenbankRecord> records = GenbankRecords.Parallel(filename))
+            {
+                Iterator<GenbankRecord> iterator = records.iterator();
+                while (iterator.hasNext())
+                    process.accept(iterator.next(), partial);
+            }
+            catch (UncheckedIOException e)
+            {
+                throw e.getCause();
+            }
+            Merge(partial);
+            if (checkpoints != null)
+                checkpoints.Store(key, partial);
+        }
+        if (checkpoints != null)
+            System.out.println(checkpoints.Report());
+    }
+
+    /*Everything the consensus of a file depends on besides its content*/
+    private static String Parameters(String referenceFile) throws IOException
+    {
+        return Homology.Parameters() + " references " + Checkpoints.Hash(referenceFile) + " promoters " + Long.toHexString(Sigma70Definition.Fingerprint(sigma70_pattern.get()));
+    }
+
+    private static HashMap<String, Sigma70Consensus> Partial(List<Gene> referenceGenes)
+    {
+        HashMap<String, Sigma70Consensus> partial = new HashMap<String, Sigma70Consensus>();
+        for (Gene referenceGene : referenceGenes)
+            partial.put(referenceGene.name, new Sigma70Consensus());
+        partial.put("all", new Sigma70Consensus());
+        return partial;
+    }
+
+    private static void Merge(Map<String, Sigma70Consensus> partial)
+    {
+        for (Map.Entry<String, Sigma70Consensus> entry : partial.entrySet())
+            consensus.get(entry.getKey()).addConsensus(entry.getValue());
     }
 
     public void run_parallel_executorService(String referenceFile, String dir) throws FileNotFoundException, IOException
     {
         List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
         ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-        List<Future> results = new ArrayList<>();
 
-        for (String filename : ListGenbankFiles(dir)) {
-            GenbankRecord record = Parse(filename);
-            System.out.println(filename);
+        ProcessRecords(referenceFile, referenceGenes, dir, (record, partial) -> {
+            List<Future> results = new ArrayList<>();
             for (Gene referenceGene : referenceGenes) {
                 System.out.println(referenceGene.name);
                 for (Gene gene : record.genes) {
-                    Future futureResult = executorService.submit(new RunnableTaskAddMatch(record.nucleotides, referenceGene, gene));
+                    Future futureResult = executorService.submit(new RunnableTaskAddMatch(record.nucleotides, referenceGene, gene, partial));
                     results.add(futureResult);
                 }
             }
-        }
-        for (Future future : results) {
-            try {
-                future.get();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
+            for (Future future : results) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                }
             }
-        }
+        });
     }
 
     public void run_parallel_parallelStream(String referenceFile, String dir) throws FileNotFoundException, IOException {
         List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
-        List<GeneComparisionTask> geneComparisionTasks = new ArrayList<>();
         System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", "12");
 
-        for (String filename : ListGenbankFiles(dir)) {
-            GenbankRecord record = Parse(filename);
-            System.out.println(filename);
+        ProcessRecords(referenceFile, referenceGenes, dir, (record, partial) -> {
+            List<List<GeneComparisionTask>> geneComparisionBatches = new ArrayList<>();
             for (Gene referenceGene : referenceGenes) {
                 System.out.println(referenceGene.name);
+                List<GeneComparisionTask> geneComparisionTasks = new ArrayList<>();
                 for (Gene gene : record.genes) {
                     geneComparisionTasks.add(new GeneComparisionTask(record.nucleotides, referenceGene, gene));
                 }
+                geneComparisionBatches.addAll(Batches(geneComparisionTasks));
             }
+
+            geneComparisionBatches.parallelStream()
+                    .flatMap(Parallel::HomologousTasks)
+                    .forEach(geneComparisionTask -> {
+                        NucleotideSequence upStreamRegion = GetUpstreamRegion(geneComparisionTask.getNucleotideSequence(), geneComparisionTask.getGene());
+                        Match prediction = PredictPromoter(upStreamRegion);
+                        if (prediction != null) {
+                            lock.lock();
+                            partial.get(geneComparisionTask.getReferenceGene().name).addMatch(prediction);
+                            partial.get("all").addMatch(prediction);
+                            lock.unlock();
+                        }
+                    });
+        });
+    }
+
+    /*Splits the tasks of one reference gene into batches of genes of similar length,
+      so each batch fills the lanes of the batch alignment kernel*/
+    private static List<List<GeneComparisionTask>> Batches(List<GeneComparisionTask> geneComparisionTasks) {
+        geneComparisionTasks.sort(Comparator.comparingInt(geneComparisionTask -> geneComparisionTask.getGene().sequence.bytes.length));
+        List<List<GeneComparisionTask>> batches = new ArrayList<>();
+        for (int i = 0; i < geneComparisionTasks.size(); i += Homology.BATCH) {
+            batches.add(geneComparisionTasks.subList(i, Math.min(i + Homology.BATCH, geneComparisionTasks.size())));
         }
+        return batches;
+    }
 
-        geneComparisionTasks.parallelStream()
-                .filter(geneComparisionTask -> Homologous(geneComparisionTask.getGene().sequence, geneComparisionTask.getReferenceGene().sequence))
-                .forEach(geneComparisionTask -> {
-                    NucleotideSequence upStreamRegion = GetUpstreamRegion(geneComparisionTask.getNucleotideSequence(), geneComparisionTask.getGene());
-                    Match prediction = PredictPromoter(upStreamRegion);
-                    if (prediction != null) {
-                        lock.lock();
-                        consensus.get(geneComparisionTask.getReferenceGene().name).addMatch(prediction);
-                        consensus.get("all").addMatch(prediction);
-                        lock.unlock();
-                    }
-                });
+    private static Stream<GeneComparisionTask> HomologousTasks(List<GeneComparisionTask> batch) {
+        List<PeptideSequence> genes = new ArrayList<>(batch.size());
+        for (GeneComparisionTask geneComparisionTask : batch) {
+            genes.add(geneComparisionTask.getGene().sequence);
+        }
+        boolean[] homologous = Homology.Homologous(genes, batch.get(0).getReferenceGene().sequence);
+        return IntStream.range(0, batch.size()).filter(i -> homologous[i]).mapToObj(batch::get);
     }
 
     public class RunnableTaskAddMatch implements Runnable {
         private final NucleotideSequence nucleotideSequence;
         private final Gene gene;
         private final Gene referenceGene;
+        private final Map<String, Sigma70Consensus> partial;
 
-        public RunnableTaskAddMatch(NucleotideSequence nucleotideSequence, Gene referenceGene, Gene gene) {
+        public RunnableTaskAddMatch(NucleotideSequence nucleotideSequence, Gene referenceGene, Gene gene, Map<String, Sigma70Consensus> partial) {
             this.nucleotideSequence = nucleotideSequence;
             this.referenceGene = referenceGene;
             this.gene = gene;
+            this.partial = partial;
         }
 
         @Override
@@ -181,8 +259,8 @@ public class Parallel
                 if (prediction != null)
                 {
                     lock.lock();
-                    consensus.get(referenceGene.name).addMatch(prediction);
-                    consensus.get("all").addMatch(prediction);
+                    partial.get(referenceGene.name).addMatch(prediction);
+                    partial.get("all").addMatch(prediction);
                     lock.unlock();
                 }
             }
@@ -202,14 +280,24 @@ public class Parallel
             int choice = scanner.nextInt();
             version = choice == 1 ? "Executors API" : "Parallel Stream API";
         }
+        // Tunes the homology engine before the timed run, which reuses its pick
+        ParseReferenceGenes("C:\\Users\\sheep\\CAB401_Program\\promoter\\referenceGenes.list");
         long start = System.currentTimeMillis();
         if(version.equals("Executors API")){
             new Parallel().run_parallel_executorService("C:\\Users\\sheep\\CAB401_Program\\promoter\\referenceGenes.list", "C:\\Users\\sheep\\CAB401_Program\\promoter\\Ecoli");
         }else{
             new Parallel().run_parallel_parallelStream("C:\\Users\\sheep\\CAB401_Program\\promoter\\referenceGenes.list", "C:\\Users\\sheep\\CAB401_Program\\promoter\\Ecoli");
         }
+        Translations.End();
         long end = System.currentTimeMillis();
         System.out.println(String.format(version+" version ran for: %s seconds", (end - start) / 1000));
+        System.out.println(Homology.PrefilterReport());
+        System.out.println(Homology.DedupeReport());
+        System.out.println(Homology.CacheReport());
+        System.out.println(Homology.EngineReport());
+        System.out.println(Homology.ApproximateReport());
+        System.out.println(PredictionCache.Report());
+        System.out.println(PromoterTrack.Report());
         for (Map.Entry<String, Sigma70Consensus> entry : consensus.entrySet())
             System.out.println(entry.getKey() + " " + entry.getValue());
         EqualityTest.assertEquals(consensus);
@@ -0,0 +1,186 @@
+package qut;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*The parsers over mapped bytes (Gene.ParseGenes(GenbankReader), GenbankRecord.Parse(GenbankReader))
+  against the original ones over a BufferedReader: both must give the same records, genes and
+  nucleotides for every line ending. The records are written by hand, to cover joins, partial
+  starts and multi-line translations one by one, and generated from -Dparser.seed*/
+
+class GenbankParserTest {
+    private static final String[] LINE_ENDINGS = {"\n", "\r\n", "\r"};
+    private static final String RESIDUES = "ACDEFGHIKLMNPQRSTVWY";
+    private static final String INDENT = "                     ";
+
+    private final long seed = Long.getLong("parser.seed", 401);
+
+    @Test
+    void handWrittenRecords() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("LOCUS       FIRST");
+        lines.add("FEATURES             Location/Qualifiers");
+        Cds(lines, "190..255", "1", "MKRISTTITTTITITTGNGAG");
+        Cds(lines, "complement(337..2799)", "2", Peptide(new Random(1), 200));
+        Cds(lines, "join(5..10,1..3)", "3", "MAL");
+        Cds(lines, "complement(join(400..430,20..30))", "4", "MQT");
+        Cds(lines, "join(50..60,70..80,)", "5", "MRV");
+        Cds(lines, "<1..100", "6", "MPK");
+        Cds(lines, "join(<1..5,10..20)", "7", "MKK");
+        Cds(lines, "join(10..20,<1..5)", "8", "MKQ");
+        Cds(lines, "complement(<700..800)", "9", "MTT");
+        Cds(lines, "500..>600", "10", "MSS");
+        Cds(lines, "900..1000", null, "MNN");
+        Cds(lines, "1100..5000", "11", Peptide(new Random(2), 1500));
+        // A translation whose closing quote is on a line of its own
+        lines.add("     CDS             1150..1180");
+        lines.add(INDENT + "/db_xref=\"GeneID:14\"");
+        lines.add(INDENT + "/translation=\"MKLV");
+        lines.add(INDENT + "\"");
+        lines.add("     CDS             1200..1300");
+        lines.add(INDENT + "/gene=\"12\"");
+        lines.add(INDENT + "/db_xref=\"GeneID:12\"");
+        lines.add("     gene            1200..1300");
+        Origin(lines, Nucleotides(new Random(3), 617));
+        lines.add("LOCUS       SECOND");
+        lines.add("FEATURES             Location/Qualifiers");
+        Cds(lines, "complement(30..90)", "13", "MEE");
+        Origin(lines, Nucleotides(new Random(4), 60));
+
+        for (String ending : LINE_ENDINGS) {
+            String text = String.join(ending, lines);
+            assertSameRecords(text + ending, 2);
+            assertSameRecords(text, 2);
+        }
+    }
+
+    @Test
+    void generatedRecords() throws IOException {
+        Random random = new Random(seed);
+        for (int file = 0; file < 50; file++) {
+            List<String> lines = new ArrayList<>();
+            int records = 1 + random.nextInt(3);
+            for (int record = 0; record < records; record++) {
+                lines.add("LOCUS       R" + record);
+                lines.add("FEATURES             Location/Qualifiers");
+                // Both parsers stop at a record without genes, so each record has one
+                Cds(lines, "1..300", "1", Peptide(random, 100));
+                int genes = random.nextInt(20);
+                for (int gene = 0; gene < genes; gene++) {
+                    String location = Location(random);
+                    if (random.nextInt(10) < 6)
+                        lines.add("     gene            " + location);
+                    Cds(lines, location, random.nextInt(10) == 0 ? null : Integer.toString(1000 + gene),
+                            Peptide(random, 1 + random.nextInt(400)));
+                }
+                Origin(lines, Nucleotides(random, 100 + random.nextInt(2000)));
+            }
+            String ending = LINE_ENDINGS[random.nextInt(LINE_ENDINGS.length)];
+            assertSameRecords(String.join(ending, lines) + ending, records);
+        }
+    }
+
+    @Test
+    void genesAtEndOfFile() throws IOException {
+        String text = "LOCUS       EMPTY\nFEATURES             Location/Qualifiers\n";
+        assertNull(Gene.ParseGenes(new BufferedReader(new StringReader(text))));
+        assertNull(Gene.ParseGenes(new GenbankReader(ByteBuffer.wrap(text.getBytes()))));
+    }
+
+    private static void assertSameRecords(String text, int expected) throws IOException {
+        BufferedReader original = new BufferedReader(new StringReader(text));
+        GenbankReader mapped = new GenbankReader(ByteBuffer.wrap(text.getBytes()));
+        int records = 0;
+        while (true) {
+            GenbankRecord expectedRecord = new GenbankRecord();
+            GenbankRecord actualRecord = new GenbankRecord();
+            boolean parsed = expectedRecord.Parse(original);
+            assertEquals(parsed, actualRecord.Parse(mapped));
+            if (!parsed)
+                break;
+            records++;
+            assertEquals(Describe(expectedRecord), Describe(actualRecord));
+        }
+        assertEquals(expected, records);
+    }
+
+    static String Describe(GenbankRecord record) {
+        StringBuilder builder = new StringBuilder();
+        for (Gene gene : record.genes)
+            builder.append(gene.name).append(' ').append(gene.strand).append(' ').append(gene.location)
+                    .append(' ').append(gene.sequence).append('\n');
+        return builder.append(record.nucleotides).toString();
+    }
+
+    /*A CDS feature, with its qualifiers wrapped at 58 characters as GenBank does. No GeneID
+      leaves the gene out of both parses*/
+    static void Cds(List<String> lines, String location, String id, String peptide) {
+        lines.add("     CDS             " + location);
+        if (id != null) {
+            lines.add(INDENT + "/gene=\"g" + id + "\"");
+            lines.add(INDENT + "/db_xref=\"GeneID:" + id + "\"");
+        }
+        String translation = "/translation=\"" + peptide + "\"";
+        for (int i = 0; i < translation.length(); i += 58)
+            lines.add(INDENT + translation.substring(i, Math.min(i + 58, translation.length())));
+        lines.add(INDENT + "/product=\"p\"");
+    }
+
+    static void Origin(List<String> lines, String nucleotides) {
+        lines.add("ORIGIN");
+        for (int i = 0; i < nucleotides.length(); i += 60) {
+            StringBuilder line = new StringBuilder(String.format("%9d", i + 1));
+            for (int j = i; j < Math.min(i + 60, nucleotides.length()); j += 10)
+                line.append(' ').append(nucleotides, j, Math.min(j + 10, nucleotides.length()));
+            lines.add(line.toString());
+        }
+        lines.add("//");
+    }
+
+    private static String Location(Random random) {
+        int start = 1 + random.nextInt(90000);
+        String range = start + ".." + (start + 3 + random.nextInt(3000));
+        String location;
+        switch (random.nextInt(6)) {
+            case 0:
+                location = "<" + range;
+                break;
+            case 1:
+                location = start + "..>" + (start + 3 + random.nextInt(3000));
+                break;
+            case 2:
+            case 3:
+                List<String> parts = new ArrayList<>();
+                for (int i = 1 + random.nextInt(4); i > 0; i--) {
+                    int part = 1 + random.nextInt(90000);
+                    parts.add(part + ".." + (part + 3 + random.nextInt(300)));
+                }
+                if (random.nextInt(10) == 0)
+                    parts.add(random.nextInt(parts.size() + 1), "<" + range);
+                location = "join(" + String.join(",", parts) + ")";
+                break;
+            default:
+                location = range;
+        }
+        return random.nextInt(10) < 4 ? "complement(" + location + ")" : location;
+    }
+
+    static String Peptide(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            builder.append(RESIDUES.charAt(random.nextInt(RESIDUES.length())));
+        return builder.toString();
+    }
+
+    static String Nucleotides(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            builder.append("acgtn".charAt(random.nextInt(5)));
+        return builder.toString();
+    }
+}
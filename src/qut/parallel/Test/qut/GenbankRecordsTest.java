@@ -0,0 +1,194 @@
+package qut;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*GenbankRecords.Stream, sequential and parallel, and GenbankRecords.Parallel over files of
+  concatenated records against each record parsed on its own: all must give the same records, in
+  order, for every line ending, for a file large enough to be split at record boundaries, and
+  for gzip and BGZF copies of the file. The BGZF copies are cut into blocks of random sizes and
+  end with the standard EOF block. -Drecords.seed changes the run*/
+
+class GenbankRecordsTest {
+    private static final String[] LINE_ENDINGS = {"\n", "\r\n", "\r"};
+    /*The empty block that ends a BGZF file*/
+    private static final byte[] BGZF_EOF = {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+            0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    private final long seed = Long.getLong("records.seed", 401);
+
+    @Test
+    void lineEndings() throws IOException {
+        Random random = new Random(seed);
+        for (String ending : LINE_ENDINGS) {
+            List<List<String>> records = Records(random, 12, 200, 3000);
+            assertSameRecords(records, ending, true, random);
+            assertSameRecords(records, ending, false, random);
+        }
+    }
+
+    @Test
+    void splitFile() throws IOException {
+        Random random = new Random(seed + 1);
+        for (String ending : LINE_ENDINGS) {
+            List<List<String>> records = Records(random, 80, 15000, 25000);
+            byte[] text = Text(records, ending, true);
+            assertTrue(text.length > 1 << 20);
+            Path file = Write(text);
+            try {
+                // Every split must cut the file at a record boundary
+                List<String> actual = new ArrayList<>();
+                int leaves;
+                try (Stream<GenbankRecord> stream = GenbankRecords.Stream(file.toString())) {
+                    leaves = Split(stream.spliterator(), actual);
+                }
+                assertTrue(leaves > 1);
+                assertEquals(Expected(records, ending, true), actual);
+            } finally {
+                Files.delete(file);
+            }
+            assertSameRecords(records, ending, true, random);
+        }
+    }
+
+    @Test
+    void bgzfBlocks() throws IOException {
+        Random random = new Random(seed + 2);
+        byte[] text = Text(Records(random, 20, 200, 5000), "\r\n", true);
+        byte[] bgzf = Bgzf(text, random);
+        byte[] gzip = Gzip(text);
+        assertTrue(BgzfInputStream.IsBgzf(bgzf, bgzf.length));
+        assertFalse(BgzfInputStream.IsBgzf(gzip, gzip.length));
+        try (InputStream input = new BgzfInputStream(new ByteArrayInputStream(bgzf))) {
+            assertArrayEquals(text, input.readAllBytes());
+        }
+        try (InputStream input = new BgzfInputStream(new ByteArrayInputStream(BGZF_EOF))) {
+            assertEquals(-1, input.read());
+        }
+        byte[] corrupt = bgzf.clone();
+        corrupt[corrupt.length - BGZF_EOF.length - 5] ^= 1;
+        try (InputStream input = new BgzfInputStream(new ByteArrayInputStream(corrupt))) {
+            assertThrows(ZipException.class, input::readAllBytes);
+        }
+    }
+
+    /*Reads the plain file of records, and its gzip and BGZF copies, every way there is*/
+    private static void assertSameRecords(List<List<String>> records, String ending, boolean lastEnding, Random random) throws IOException {
+        List<String> expected = Expected(records, ending, lastEnding);
+        byte[] text = Text(records, ending, lastEnding);
+        for (byte[] bytes : Arrays.asList(text, Gzip(text), Bgzf(text, random))) {
+            Path file = Write(bytes);
+            try {
+                try (Stream<GenbankRecord> stream = GenbankRecords.Stream(file.toString())) {
+                    assertEquals(expected, stream.map(GenbankParserTest::Describe).collect(Collectors.toList()));
+                }
+                try (Stream<GenbankRecord> stream = GenbankRecords.Stream(file.toString())) {
+                    assertEquals(expected, stream.parallel().map(GenbankParserTest::Describe).collect(Collectors.toList()));
+                }
+                try (Stream<GenbankRecord> stream = GenbankRecords.Parallel(file.toString())) {
+                    assertEquals(expected, stream.map(GenbankParserTest::Describe).collect(Collectors.toList()));
+                }
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /*Splits spliterator as far as it goes and reads the pieces in order into records; the number
+      of pieces*/
+    private static int Split(Spliterator<GenbankRecord> spliterator, List<String> records) {
+        Spliterator<GenbankRecord> prefix = spliterator.trySplit();
+        if (prefix == null) {
+            spliterator.forEachRemaining(record -> records.add(GenbankParserTest.Describe(record)));
+            return 1;
+        }
+        return Split(prefix, records) + Split(spliterator, records);
+    }
+
+    /*Each record parsed from its own bytes; those without genes are left out, as the streams skip
+      them*/
+    private static List<String> Expected(List<List<String>> records, String ending, boolean lastEnding) throws IOException {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            byte[] text = Text(records.subList(i, i + 1), ending, lastEnding || i + 1 < records.size());
+            GenbankRecord record = new GenbankRecord();
+            if (record.Parse(new GenbankReader(ByteBuffer.wrap(text))))
+                expected.add(GenbankParserTest.Describe(record));
+        }
+        assertFalse(expected.isEmpty());
+        return expected;
+    }
+
+    /*Records of up to five genes each, some with none*/
+    private static List<List<String>> Records(Random random, int count, int minNucleotides, int maxNucleotides) {
+        List<List<String>> records = new ArrayList<>();
+        for (int record = 0; record < count; record++) {
+            List<String> lines = new ArrayList<>();
+            lines.add("LOCUS       R" + record);
+            lines.add("FEATURES             Location/Qualifiers");
+            int nucleotides = minNucleotides + random.nextInt(maxNucleotides - minNucleotides);
+            int genes = random.nextInt(6) == 0 ? 0 : 1 + random.nextInt(5);
+            for (int gene = 0; gene < genes; gene++) {
+                int start = 1 + random.nextInt(nucleotides - 100);
+                String location = start + ".." + (start + 3 + random.nextInt(90));
+                GenbankParserTest.Cds(lines, random.nextBoolean() ? "complement(" + location + ")" : location,
+                        Integer.toString(record * 10 + gene), GenbankParserTest.Peptide(random, 1 + random.nextInt(100)));
+            }
+            GenbankParserTest.Origin(lines, GenbankParserTest.Nucleotides(random, nucleotides));
+            records.add(lines);
+        }
+        return records;
+    }
+
+    private static byte[] Text(List<List<String>> records, String ending, boolean lastEnding) {
+        String text = records.stream().map(lines -> String.join(ending, lines)).collect(Collectors.joining(ending));
+        return (lastEnding ? text + ending : text).getBytes();
+    }
+
+    private static Path Write(byte[] bytes) throws IOException {
+        Path file = Files.createTempFile("records", ".gbk");
+        Files.write(file, bytes);
+        return file;
+    }
+
+    private static byte[] Gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (OutputStream output = new GZIPOutputStream(gzip)) {
+            output.write(bytes);
+        }
+        return gzip.toByteArray();
+    }
+
+    /*bytes as BGZF blocks of random sizes, so that records and line ends fall across blocks*/
+    private static byte[] Bgzf(byte[] bytes, Random random) throws IOException {
+        ByteArrayOutputStream bgzf = new ByteArrayOutputStream();
+        for (int offset = 0; offset < bytes.length; ) {
+            int length = Math.min(bytes.length - offset, 1 + random.nextInt(random.nextBoolean() ? 64 : 0xff00));
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            byte[] deflated = new byte[length + 1024];
+            int size = deflater.deflate(deflated);
+            assertTrue(deflater.finished());
+            deflater.end();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, offset, length);
+            ByteBuffer block = ByteBuffer.allocate(18 + size + 8).order(ByteOrder.LITTLE_ENDIAN);
+            block.put(BGZF_EOF, 0, 16).putShort((short) (18 + size + 8 - 1)).put(deflated, 0, size)
+                    .putInt((int) crc.getValue()).putInt(length);
+            bgzf.write(block.array());
+            offset += length;
+        }
+        bgzf.write(BGZF_EOF);
+        return bgzf.toByteArray();
+    }
+}
@@ -0,0 +1,210 @@
+package qut;
+
+import jaligner.*;
+import jaligner.matrix.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*Differential fuzzing of the homology engines against the original path, a full
+  SmithWatermanGotoh alignment and Alignment.calculateScore(). Every generated pair goes
+  through every engine, one pair at a time and as a list, against a compiled reference and
+  against a plain one, and through Homology itself. Any score or decision that differs is
+  shrunk to a small reproducer. -Dfuzz.seed changes the run; the default of PAIRS pairs keeps
+  the suite quick, and -Dfuzz.pairs raises it for a soak run*/
+
+class HomologyFuzzTest {
+    private static final float CUTOFF = 60f;
+    private static final String RESIDUES = "ARNDCQEGHILKMFPSTWYVBZX*";
+    private static final int[] EDGE_LENGTHS = {0, 1, 2, 3, 4, 7, 8, 9, 15, 16, 17, 31, 32, 33, 63, 64, 65};
+    private static final Matrix BLOSUM_62 = BLOSUM62.Load();
+    private static final int REPORTED = 5;
+    private static final int PAIRS = 300;
+
+    private final long seed = Long.getLong("fuzz.seed", 401);
+    private final int pairs = Integer.getInteger("fuzz.pairs", PAIRS);
+
+    @Test
+    void enginesMatchOriginalAlignment() {
+        Random random = new Random(seed);
+        List<String> mismatches = new ArrayList<>();
+        int homologous = 0;
+        // Pairs are generated by reference, so the list path sees a batch of genes per reference
+        for (int done = 0; done < pairs; ) {
+            String reference = Reference(random);
+            List<String> genes = new ArrayList<>();
+            for (int i = 0; i < 16 && done < pairs; i++, done++)
+                genes.add(Gene(random, reference));
+            for (String gene : genes)
+                if (Expected(gene, reference) >= CUTOFF)
+                    homologous++;
+            Check(genes, reference, mismatches);
+        }
+        System.out.println(String.format("Fuzzed %d pairs (seed %d), %d homologous, %d mismatches", pairs, seed, homologous, mismatches.size()));
+        assertTrue(mismatches.isEmpty(), String.join("\n", mismatches.subList(0, Math.min(REPORTED, mismatches.size()))));
+    }
+
+    /*Reference peptides: mostly ordinary lengths, sometimes edge lengths or low complexity*/
+    private static String Reference(Random random) {
+        switch (random.nextInt(6)) {
+            case 0:
+                return Random(random, EDGE_LENGTHS[random.nextInt(EDGE_LENGTHS.length)]);
+            case 1:
+                return Repeat(random, 20 + random.nextInt(400));
+            default:
+                return Random(random, 20 + random.nextInt(600));
+        }
+    }
+
+    /*Genes: random, mutated homologs of the reference, edge lengths, or low complexity*/
+    private static String Gene(Random random, String reference) {
+        switch (random.nextInt(8)) {
+            case 0:
+                return Random(random, EDGE_LENGTHS[random.nextInt(EDGE_LENGTHS.length)]);
+            case 1:
+                return Repeat(random, 20 + random.nextInt(400));
+            case 2:
+            case 3:
+                return Random(random, random.nextInt(800));
+            default:
+                return Mutate(random, reference, 0.05 + 0.6 * random.nextDouble());
+        }
+    }
+
+    private static String Random(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            builder.append(RESIDUES.charAt(random.nextInt(RESIDUES.length())));
+        return builder.toString();
+    }
+
+    /*Short motifs repeated many times, which give long runs of high scores*/
+    private static String Repeat(Random random, int length) {
+        String motif = Random(random, 1 + random.nextInt(4));
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length)
+            builder.append(motif);
+        return builder.substring(0, length);
+    }
+
+    /*Substitutions, insertions and deletions at the given rate, sometimes on a window only*/
+    private static String Mutate(Random random, String source, double rate) {
+        if (source.length() > 8 && random.nextBoolean()) {
+            int start = random.nextInt(source.length() / 2);
+            source = source.substring(start, start + 4 + random.nextInt(source.length() - start - 4));
+        }
+        StringBuilder builder = new StringBuilder();
+        for (char residue : source.toCharArray()) {
+            if (random.nextDouble() >= rate)
+                builder.append(residue);
+            else
+                switch (random.nextInt(3)) {
+                    case 0:
+                        builder.append(RESIDUES.charAt(random.nextInt(RESIDUES.length())));
+                        break;
+                    case 1:
+                        builder.append(residue).append(Random(random, 1 + random.nextInt(6)));
+                        break;
+                    default:
+                        break;
+                }
+        }
+        return builder.toString();
+    }
+
+    /*The original path: align with traceback, then score the alignment*/
+    private static float Expected(String gene, String reference) {
+        return SmithWatermanGotoh.align(new Sequence(gene), new Sequence(reference), BLOSUM_62, 10f, 0.5f, new AlignmentWorkspace()).calculateScore();
+    }
+
+    private static void Check(List<String> genes, String reference, List<String> mismatches) {
+        float[] scores = new float[genes.size()];
+        boolean[] expected = new boolean[genes.size()];
+        for (int i = 0; i < genes.size(); i++) {
+            scores[i] = Expected(genes.get(i), reference);
+            expected[i] = scores[i] >= CUTOFF;
+            String mismatch = Mismatch(genes.get(i), reference);
+            if (mismatch != null)
+                mismatches.add(Shrink(genes.get(i), reference, mismatch));
+        }
+        for (boolean compiled : new boolean[]{true, false}) {
+            PeptideSequence B = Peptide(reference, compiled);
+            List<PeptideSequence> A = new ArrayList<>();
+            for (String gene : genes)
+                A.add(new PeptideSequence(gene));
+            for (HomologyEngine engine : HomologyEngines.Available()) {
+                float[] similarities = engine.Similarity(A, B);
+                for (int i = 0; i < genes.size(); i++)
+                    if (Float.compare(similarities[i], scores[i]) != 0)
+                        mismatches.add(String.format("%s list (%s reference): score %s, expected %s for gene=\"%s\" reference=\"%s\"",
+                                engine.getName(), compiled ? "compiled" : "plain", similarities[i], scores[i], genes.get(i), reference));
+                boolean[] decisions = engine.Homologous(A, B, CUTOFF);
+                for (int i = 0; i < genes.size(); i++)
+                    if (decisions[i] != expected[i])
+                        mismatches.add(String.format("%s list (%s reference): decision %b for gene=\"%s\" reference=\"%s\"",
+                                engine.getName(), compiled ? "compiled" : "plain", decisions[i], genes.get(i), reference));
+            }
+            boolean[] decisions = Homology.Homologous(A, B);
+            for (int i = 0; i < genes.size(); i++)
+                if (decisions[i] != expected[i])
+                    mismatches.add(String.format("Homology list (%s reference): decision %b for gene=\"%s\" reference=\"%s\"",
+                            compiled ? "compiled" : "plain", decisions[i], genes.get(i), reference));
+        }
+    }
+
+    /*Describes the first engine that disagrees with the original path on one pair, or null*/
+    private static String Mismatch(String gene, String reference) {
+        float expected = Expected(gene, reference);
+        for (boolean compiled : new boolean[]{true, false}) {
+            PeptideSequence A = new PeptideSequence(gene);
+            PeptideSequence B = Peptide(reference, compiled);
+            String kind = compiled ? "compiled" : "plain";
+            for (HomologyEngine engine : HomologyEngines.Available()) {
+                float score = engine.Similarity(A, B);
+                if (Float.compare(score, expected) != 0)
+                    return String.format("%s (%s reference): score %s, expected %s", engine.getName(), kind, score, expected);
+                boolean decision = engine.Homologous(A, B, CUTOFF);
+                if (decision != expected >= CUTOFF)
+                    return String.format("%s (%s reference): decision %b at score %s", engine.getName(), kind, decision, expected);
+            }
+            boolean decision = Homology.Homologous(A, B);
+            if (decision != expected >= CUTOFF)
+                return String.format("Homology (%s reference): decision %b at score %s", kind, decision, expected);
+        }
+        return null;
+    }
+
+    private static PeptideSequence Peptide(String sequence, boolean compiled) {
+        PeptideSequence peptide = new PeptideSequence(sequence);
+        if (compiled)
+            Homology.CompileProfile(peptide);
+        return peptide;
+    }
+
+    /*Removes ever smaller chunks of either sequence while some engine still disagrees*/
+    private static String Shrink(String gene, String reference, String mismatch) {
+        boolean shrunk = true;
+        while (shrunk) {
+            shrunk = false;
+            for (int side = 0; side < 2; side++) {
+                String sequence = side == 0 ? gene : reference;
+                for (int chunk = Math.max(1, sequence.length() / 2); chunk >= 1 && !shrunk; chunk /= 2)
+                    for (int start = 0; start + chunk <= sequence.length() && !shrunk; start += chunk) {
+                        String candidate = sequence.substring(0, start) + sequence.substring(start + chunk);
+                        String found = side == 0 ? Mismatch(candidate, reference) : Mismatch(gene, candidate);
+                        if (found != null) {
+                            if (side == 0)
+                                gene = candidate;
+                            else
+                                reference = candidate;
+                            mismatch = found;
+                            shrunk = true;
+                        }
+                    }
+            }
+        }
+        return String.format("%s for gene=\"%s\" reference=\"%s\"", mismatch, gene, reference);
+    }
+}
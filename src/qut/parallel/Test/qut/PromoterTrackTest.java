@@ -0,0 +1,77 @@
+package qut;
+
+import edu.au.jacobi.pattern.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*PromoterTrack.Predict against BioPatterns.getBestMatch, the scan it replaces, on regions of
+  both strands cut from random genomes seeded with promoter-like boxes. Two patterns with
+  different thresholds predict over the same genomes, so each must keep its own track, and a
+  copy of a pattern must share the track of the original. -Dtrack.seed changes the run*/
+
+class PromoterTrackTest {
+    private static final int GENOMES = 10;
+    private static final int REGIONS = 60;
+
+    private final long seed = Long.getLong("track.seed", 401);
+
+    @Test
+    void predictionsMatchScan() {
+        Random random = new Random(seed);
+        List<Series> patterns = Arrays.asList(Sigma70Definition.getSeriesAll_Unanchored(0.7),
+                Sigma70Definition.getSeriesAll_Unanchored(0.75), Sigma70Definition.getSeriesAll_Unanchored(0.7));
+        int predicted = 0;
+        for (int g = 0; g < GENOMES; g++) {
+            NucleotideSequence genome = new NucleotideSequence(Genome(random));
+            for (int r = 0; r < REGIONS; r++) {
+                Gene gene = new Gene("g" + r, random.nextBoolean() ? 1 : -1, 2 + random.nextInt(genome.bytes.length - 2), "M");
+                NucleotideSequence region = genome.GetUpstreamRegion(gene);
+                for (Series pattern : patterns) {
+                    Match expected = BioPatterns.getBestMatch(pattern, region.toString());
+                    assertEquals(Describe(expected), Describe(PromoterTrack.Predict(pattern, region)),
+                            "region of gene at " + gene.location + " on strand " + gene.strand);
+                    if (expected != null)
+                        predicted++;
+                }
+            }
+            assertNotNull(genome.Track(patterns.get(0)));
+            assertSame(genome.Track(patterns.get(0)), genome.Track(patterns.get(2)));
+            assertNotSame(genome.Track(patterns.get(0)), genome.Track(patterns.get(1)));
+        }
+        assertTrue(predicted > 0);
+    }
+
+    /*A genome of random bases, some of them upper case or ambiguous, with -35 and -10 boxes
+      set at promoter spacings*/
+    private static byte[] Genome(Random random) {
+        byte[] genome = new byte[2000 + random.nextInt(8000)];
+        String bases = random.nextInt(4) == 0 ? "ACGTacgtnNRY" : "acgt";
+        for (int i = 0; i < genome.length; i++)
+            genome[i] = (byte) bases.charAt(random.nextInt(bases.length()));
+        for (int k = 0; k < genome.length / 60; k++) {
+            int minus35 = random.nextInt(genome.length - 40);
+            int minus10 = minus35 + 6 + 14 + random.nextInt(7);
+            System.arraycopy((random.nextBoolean() ? "ttgaca" : "TTGACA").getBytes(), 0, genome, minus35, 6);
+            System.arraycopy((random.nextBoolean() ? "tataat" : "tatgat").getBytes(), 0, genome, minus10, 6);
+        }
+        return genome;
+    }
+
+    private static String Describe(Match match) {
+        if (match == null)
+            return "none";
+        StringBuilder builder = new StringBuilder();
+        Describe(builder, match);
+        for (int i = 0; i < match.getSubMatchNumber(); i++)
+            Describe(builder.append(" | "), match.getSubMatch(i));
+        return builder.toString();
+    }
+
+    private static void Describe(StringBuilder builder, Match match) {
+        builder.append(match.start()).append(',').append(match.length()).append(',').append(match.strand())
+                .append(',').append(match.similarity()).append(',').append(match.impact()).append(',').append(match.letters());
+    }
+}